@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+# times a hyd script on two revisions of the interpreter, to see what a
+# change does to its speed. the return flag of user-007, for example:
+#
+#   bench/ab.sh acaafd9^ acaafd9 hydlang/src/test/fib_bench.hyd
+#
+# each revision's hydlang/src is compiled into a temporary directory, then
+# the script runs RUNS times (5 by default) on each, taking turns so both
+# see the same machine. the best wall-clock time of each is printed, jvm
+# startup included. extra arguments after the script, like --jit, are
+# passed to hyd.
+set -euo pipefail
+
+if [ $# -lt 3 ]; then
+    echo "USAGE: bench/ab.sh <revision-a> <revision-b> <script> [hyd flags]" >&2
+    exit 64
+fi
+a=$1; b=$2; script=$3; shift 3
+runs=${RUNS:-5}
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+build(){
+    mkdir -p "$work/$1/src" "$work/$1/classes"
+    git archive "$2" hydlang/src | tar -x -C "$work/$1/src"
+    (cd "$work/$1/src/hydlang/src" && javac -nowarn -d "$work/$1/classes" $(find hyd -name '*.java')) >/dev/null
+}
+
+#milliseconds for one run, the script's own output is dropped. a run
+#that fails stops everything, its time would mean nothing.
+run(){
+    local classes=$work/$1/classes start end
+    shift
+    start=$(date +%s%N)
+    if ! java -cp "$classes" hyd.Hyd "$@" "$script" >/dev/null 2>"$work/err"; then
+        echo "hyd failed on $script:" >&2
+        cat "$work/err" >&2
+        return 1
+    fi
+    end=$(date +%s%N)
+    echo $(( (end - start) / 1000000 ))
+}
+
+build a "$a"
+build b "$b"
+best_a=; best_b=
+for ((i = 0; i < runs; i++)); do
+    t=$(run a "$@"); if [ -z "$best_a" ] || [ "$t" -lt "$best_a" ]; then best_a=$t; fi
+    t=$(run b "$@"); if [ -z "$best_b" ] || [ "$t" -lt "$best_b" ]; then best_b=$t; fi
+done
+echo "$a: ${best_a} ms"
+echo "$b: ${best_b} ms"
@@ -0,0 +1,116 @@
+package hyd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//each stage of running a script, measured on its own. every stage after
+//scanning starts from the output of the previous ones, prepared once per
+//trial: parse rescans, resolve re-resolves the same tree and interpret
+//runs the optimized tree with a fresh interpreter.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    //the sample scripts from hydlang/src/test and the synthetic ones in
+    //bench/src/main/resources/workloads.
+    @Param({"block", "fibo", "fibo_rec", "hi_func", "recursion", "loop", "strings", "closures"})
+    public String workload;
+
+    private String source;
+    private final ErrorReporter errors = new ErrorReporter();
+    private final Globals symbols = new Globals();
+    private List<Stmt> statements;
+    private List<Stmt> program;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = read("/workloads/" + workload + ".hyd");
+        statements = new Parser(new Scanner(source, errors, symbols)).parse();
+        new Resolver(errors, symbols).resolve(statements);
+        //a tree of its own, the optimizer rewrites resolved nodes in place.
+        program = new Parser(new Scanner(source, errors, symbols)).parse();
+        new Resolver(errors, symbols).resolve(program);
+        program = new Optimizer().optimize(program);
+        if(errors.hadError){
+            throw new IllegalStateException("Workload " + workload + " doesn't compile.");
+        }
+
+        //scripts print, which would only measure the terminal.
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int scan(){
+        Scanner scanner = new Scanner(source);
+        int count = 0;
+        while(scanner.next().type != TokenType.EOF) count++;
+        return count;
+    }
+
+    @Benchmark
+    public List<Stmt> parse(){
+        return new Parser(new Scanner(source)).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve(){
+        new Resolver(errors, symbols).resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public void interpret(Blackhole blackhole){
+        Interpreter interpreter = new Interpreter(errors, symbols);
+        interpreter.interpret(program);
+        blackhole.consume(interpreter);
+    }
+
+    private static String read(String resource) throws IOException {
+        try(InputStream in = PipelineBenchmark.class.getResourceAsStream(resource)){
+            if(in == null) throw new IOException("No workload " + resource);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for(int read = in.read(buffer);read >= 0;read = in.read(buffer)){
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
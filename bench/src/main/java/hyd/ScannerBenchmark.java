@@ -0,0 +1,70 @@
+package hyd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//scanner throughput over a large generated script. every invocation
+//scans exactly MEGABYTES of source and counts that many operations, so
+//the score, in ops/s, is MB of source a second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+    private static final int MEGABYTES = 16;
+
+    private String source;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        source = generate(MEGABYTES * 1024 * 1024);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public int scan(){
+        Scanner scanner = new Scanner(source);
+        int count = 0;
+        while(scanner.next().type != TokenType.EOF) count++;
+        return count;
+    }
+
+    //the kind of code our generated scripts are made of: lots of short
+    //functions, locals, arithmetic, calls and the odd string and comment.
+    //padded with blank lines to exactly size characters, all ascii.
+    private static String generate(int size){
+        StringBuilder out = new StringBuilder(size);
+        StringBuilder function = new StringBuilder();
+        for(int i = 0;;i++){
+            function.setLength(0);
+            function.append("// generated function ").append(i).append('\n');
+            function.append("fun step").append(i).append("(count, total) {\n");
+            function.append("  var index = 0;\n");
+            function.append("  while (index < count and total != nil) {\n");
+            function.append("    total = total + index * ").append(i % 97).append(".5 - (index / 3);\n");
+            function.append("    if (total >= 1000000) { print \"overflow in step").append(i).append("\"; return false; }\n");
+            function.append("    index = index + 1;\n");
+            function.append("  }\n");
+            function.append("  return step").append(i).append("(count - 1, total) or true;\n");
+            function.append("}\n");
+            if(out.length() + function.length() > size) break;
+            out.append(function);
+        }
+        while(out.length() < size) out.append('\n');
+        return out.toString();
+    }
+}
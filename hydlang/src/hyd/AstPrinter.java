@@ -13,7 +13,7 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
-        return parenthesize(expr.oper.lexeme, expr.left, expr.right);
+        return parenthesize(expr.oper.lexeme(), expr.left, expr.right);
     }
 
     @Override
@@ -39,7 +39,7 @@ public class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
-        return parenthesize(expr.oper.lexeme, expr.right);
+        return parenthesize(expr.oper.lexeme(), expr.right);
     }
 
     @Override
@@ -0,0 +1,247 @@
+package hyd;
+
+//the executable part of a Binary expression. every Binary starts out with
+//the uninitialized node which, the first time it runs, replaces itself
+//with a node specialized for the operator and the operand types it saw.
+//a specialized node that later sees other types rewrites itself to the
+//generic version of its operator, so no node ever rewrites more than twice.
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+
+    private static final BinaryNode ADD = new Add();
+    private static final BinaryNode SUBTRACT = new Subtract();
+    private static final BinaryNode MULTIPLY = new Multiply();
+    private static final BinaryNode DIVIDE = new Divide();
+    private static final BinaryNode GREATER = new Greater();
+    private static final BinaryNode GREATER_EQUAL = new GreaterEqual();
+    private static final BinaryNode LESS = new Less();
+    private static final BinaryNode LESS_EQUAL = new LessEqual();
+    private static final Boxed DOUBLE_ADD = new DoubleAdd();
+    private static final Boxed STRING_CONCAT = new StringConcat();
+    private static final Boxed GENERIC_ADD = new GenericAdd();
+    private static final Boxed DOUBLE_EQUAL = new DoubleEqual(false);
+    private static final Boxed DOUBLE_NOT_EQUAL = new DoubleEqual(true);
+    private static final Boxed GENERIC_EQUAL = new GenericEqual(false);
+    private static final Boxed GENERIC_NOT_EQUAL = new GenericEqual(true);
+
+    abstract Object execute(Interpreter interpreter, Expr.Binary expr);
+
+    //only called for expressions the Resolver marked numeric.
+    double executeDouble(Interpreter interpreter, Expr.Binary expr){
+        throw new IllegalStateException("Not a numeric operator: " + expr.oper.lexeme());
+    }
+
+    private static class Uninitialized extends BinaryNode{
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            BinaryNode node;
+            switch (expr.oper.type){
+                case MINUS: node = SUBTRACT; break;
+                case STAR: node = MULTIPLY; break;
+                case SLASH: node = DIVIDE; break;
+                default: node = ADD; break;
+            }
+            expr.node = node;
+            return node.executeDouble(interpreter, expr);
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            if(expr.numeric){
+                return executeDouble(interpreter, expr);
+            }
+
+            BinaryNode node = null;
+            switch (expr.oper.type){
+                case GREATER: node = GREATER; break;
+                case GREATER_EQUAL: node = GREATER_EQUAL; break;
+                case LESS: node = LESS; break;
+                case LESS_EQUAL: node = LESS_EQUAL; break;
+            }
+            if(node != null){
+                expr.node = node;
+                return node.execute(interpreter, expr);
+            }
+
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            boolean doubles = left instanceof Double && right instanceof Double;
+
+            Boxed boxed;
+            switch (expr.oper.type){
+                case PLUS:
+                    if(doubles) boxed = DOUBLE_ADD;
+                    else if(left instanceof CharSequence && right instanceof CharSequence) boxed = STRING_CONCAT;
+                    else boxed = GENERIC_ADD;
+                    break;
+                case EQUAL_EQUAL:
+                    boxed = doubles ? DOUBLE_EQUAL : GENERIC_EQUAL;
+                    break;
+                default:
+                    boxed = doubles ? DOUBLE_NOT_EQUAL : GENERIC_NOT_EQUAL;
+                    break;
+            }
+            expr.node = boxed;
+            return boxed.apply(interpreter, expr, left, right);
+        }
+    }
+
+    //expressions the Resolver proved numeric. they only box their result
+    //when a non numeric parent asks for it.
+    private abstract static class Arithmetic extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            return executeDouble(interpreter, expr);
+        }
+    }
+
+    private static class Add extends Arithmetic{
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber + interpreter.rightNumber;
+        }
+    }
+
+    private static class Subtract extends Arithmetic{
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber - interpreter.rightNumber;
+        }
+    }
+
+    private static class Multiply extends Arithmetic{
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber * interpreter.rightNumber;
+        }
+    }
+
+    private static class Divide extends Arithmetic{
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber / interpreter.rightNumber;
+        }
+    }
+
+    private static class Greater extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber > interpreter.rightNumber;
+        }
+    }
+
+    private static class GreaterEqual extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber >= interpreter.rightNumber;
+        }
+    }
+
+    private static class Less extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber < interpreter.rightNumber;
+        }
+    }
+
+    private static class LessEqual extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            interpreter.numberOperands(expr);
+            return interpreter.leftNumber <= interpreter.rightNumber;
+        }
+    }
+
+    //operators whose specialization depends on the operand values.
+    private abstract static class Boxed extends BinaryNode{
+        @Override
+        Object execute(Interpreter interpreter, Expr.Binary expr) {
+            Object left = interpreter.evaluate(expr.left);
+            Object right = interpreter.evaluate(expr.right);
+            return apply(interpreter, expr, left, right);
+        }
+
+        abstract Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right);
+
+        Object rewrite(Boxed generic, Interpreter interpreter, Expr.Binary expr, Object left, Object right){
+            expr.node = generic;
+            return generic.apply(interpreter, expr, left, right);
+        }
+    }
+
+    private static class DoubleAdd extends Boxed{
+        @Override
+        Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double){
+                return (double)left + (double)right;
+            }
+            return rewrite(GENERIC_ADD, interpreter, expr, left, right);
+        }
+    }
+
+    private static class StringConcat extends Boxed{
+        @Override
+        Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if(left instanceof CharSequence && right instanceof CharSequence){
+                return LazyString.concat((CharSequence)left, (CharSequence)right);
+            }
+            return rewrite(GENERIC_ADD, interpreter, expr, left, right);
+        }
+    }
+
+    private static class GenericAdd extends Boxed{
+        @Override
+        Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            return add(expr.oper, left, right);
+        }
+    }
+
+    static Object add(Token oper, Object left, Object right){
+        if(left instanceof Double && right instanceof Double){
+            return (double)left + (double) right;
+        }
+        if(left instanceof CharSequence && right instanceof CharSequence){
+            return LazyString.concat((CharSequence)left, (CharSequence)right);
+        }
+
+        throw new RuntimeError(oper, "Operands must be of the same type (double or string).");
+    }
+
+    private static class DoubleEqual extends Boxed{
+        private final boolean negate;
+
+        DoubleEqual(boolean negate){
+            this.negate = negate;
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double){
+                //Double.equals semantics: NaN equals itself, 0.0 doesn't equal -0.0.
+                boolean equal = Double.doubleToLongBits((double)left) == Double.doubleToLongBits((double)right);
+                return equal != negate;
+            }
+            return rewrite(negate ? GENERIC_NOT_EQUAL : GENERIC_EQUAL, interpreter, expr, left, right);
+        }
+    }
+
+    private static class GenericEqual extends Boxed{
+        private final boolean negate;
+
+        GenericEqual(boolean negate){
+            this.negate = negate;
+        }
+
+        @Override
+        Object apply(Interpreter interpreter, Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right) != negate;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package hyd;
+
+import java.util.List;
+
+//the executable part of a Call expression, specialized on the callee the
+//call site sees. a site that keeps calling the same declared function
+//skips the callable and arity checks, any other callee turns it generic.
+abstract class CallNode {
+    static final CallNode UNINITIALIZED = new Uninitialized();
+
+    private static final CallNode GENERIC = new Generic();
+
+    abstract Object call(Interpreter interpreter, Expr.Call expr, Object callee, List<Object> args);
+
+    //the same for calls with up to four arguments, count of them, passed
+    //without a list. the unused ones are null.
+    abstract Object call(Interpreter interpreter, Expr.Call expr, Object callee, int count,
+                         Object a, Object b, Object c, Object d);
+
+    private static class Uninitialized extends CallNode{
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, List<Object> args) {
+            if(callee instanceof HydFunction && ((HydFunction)callee).arity() == args.size()){
+                expr.node = new Function(((HydFunction)callee).declaration);
+            }else{
+                expr.node = GENERIC;
+            }
+            return GENERIC.call(interpreter, expr, callee, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, int count,
+                    Object a, Object b, Object c, Object d) {
+            if(callee instanceof HydFunction && ((HydFunction)callee).arity() == count){
+                expr.node = new Function(((HydFunction)callee).declaration);
+            }else{
+                expr.node = GENERIC;
+            }
+            return GENERIC.call(interpreter, expr, callee, count, a, b, c, d);
+        }
+    }
+
+    private static class Function extends CallNode{
+        private final Stmt.Function declaration;
+
+        Function(Stmt.Function declaration){
+            this.declaration = declaration;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, List<Object> args) {
+            //same declaration, so the arity already matched.
+            if(callee instanceof HydFunction && ((HydFunction)callee).declaration == declaration){
+                return ((HydFunction)callee).call(interpreter, args);
+            }
+            expr.node = GENERIC;
+            return GENERIC.call(interpreter, expr, callee, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, int count,
+                    Object a, Object b, Object c, Object d) {
+            if(callee instanceof HydFunction && ((HydFunction)callee).declaration == declaration){
+                return invoke((HydFunction)callee, interpreter, count, a, b, c, d);
+            }
+            expr.node = GENERIC;
+            return GENERIC.call(interpreter, expr, callee, count, a, b, c, d);
+        }
+    }
+
+    private static class Generic extends CallNode{
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, List<Object> args) {
+            try{
+                return callable(callee, args.size(), expr.paren).call(interpreter, args);
+            }catch (RuntimeError e){
+                throw at(e, expr.paren);
+            }
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Expr.Call expr, Object callee, int count,
+                    Object a, Object b, Object c, Object d) {
+            try{
+                return invoke(callable(callee, count, expr.paren), interpreter, count, a, b, c, d);
+            }catch (RuntimeError e){
+                throw at(e, expr.paren);
+            }
+        }
+    }
+
+    private static Object invoke(HydCallable function, Interpreter interpreter, int count,
+                                 Object a, Object b, Object c, Object d){
+        switch (count){
+            case 0: return function.call0(interpreter);
+            case 1: return function.call1(interpreter, a);
+            case 2: return function.call2(interpreter, a, b);
+            case 3: return function.call3(interpreter, a, b, c);
+            default: return function.call4(interpreter, a, b, c, d);
+        }
+    }
+
+    //natives have no token to report errors at, theirs go to the call.
+    static RuntimeError at(RuntimeError error, Token paren){
+        return error.token != null ? error : new RuntimeError(paren, error.getMessage());
+    }
+
+    //checks that the callee can be called with that many arguments.
+    static HydCallable callable(Object callee, int count, Token paren){
+        if(!(callee instanceof HydCallable)){
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        HydCallable function = (HydCallable)callee;
+
+        if(count != function.arity()){
+            throw new RuntimeError(paren, "Expected "+ function.arity() + "args but got "+
+                    count + ".");
+        }
+        return function;
+    }
+}
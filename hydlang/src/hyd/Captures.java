@@ -0,0 +1,179 @@
+package hyd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+//finds the blocks declaring a variable that a function nested inside them
+//reads or assigns. only those need an environment of their own, made anew
+//every time they run so each closure keeps the variables of its own round
+//of a loop. the locals of every other block live in the frame of the
+//function or block around them. runs before the Resolver, which needs to
+//know when it enters a block whether it gets a frame.
+class Captures implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    private final Set<Stmt.Block> captured = Collections.newSetFromMap(new IdentityHashMap<Stmt.Block, Boolean>());
+    private final List<Scope> scopes = new ArrayList<>();
+    //functions entered so far, the top level being 0.
+    private int level = 0;
+
+    private static class Scope{
+        //null for the scope of a function's parameters and body.
+        final Stmt.Block block;
+        final int level;
+        final Set<Symbol> names = Collections.newSetFromMap(new IdentityHashMap<Symbol, Boolean>());
+
+        Scope(Stmt.Block block, int level){
+            this.block = block;
+            this.level = level;
+        }
+    }
+
+    static Set<Stmt.Block> find(List<Stmt> statements){
+        Captures captures = new Captures();
+        captures.visit(statements);
+        return captures.captured;
+    }
+
+    private void visit(List<Stmt> statements){
+        for(Stmt stmt : statements){
+            stmt.accept(this);
+        }
+    }
+
+    private void use(Token name){
+        for(int i = scopes.size()-1;i >= 0;i--){
+            Scope scope = scopes.get(i);
+            if(!scope.names.contains(name.symbol)) continue;
+            if(scope.level < level && scope.block != null) captured.add(scope.block);
+            return;
+        }
+    }
+
+    //in the same order as the Resolver, so a name is seen in the scope it
+    //resolves to.
+    private void declare(Token name){
+        if(!scopes.isEmpty()) scopes.get(scopes.size()-1).names.add(name.symbol);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.value.accept(this);
+        use(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        expr.callee.accept(this);
+        for(Expr arg : expr.arguments){
+            arg.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        use(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new Scope(stmt, level));
+        visit(stmt.statements);
+        scopes.remove(scopes.size()-1);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        level++;
+        scopes.add(new Scope(null, level));
+        for(Token param : stmt.params){
+            declare(param);
+        }
+        visit(stmt.body);
+        scopes.remove(scopes.size()-1);
+        level--;
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value != null) stmt.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        declare(stmt.name);
+        if(stmt.initializer != null) stmt.initializer.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }
+}
@@ -0,0 +1,15 @@
+package hyd;
+
+//a function body the JitCompiler turned into a jvm class. generated
+//classes live in their own class loader, so this and everything they
+//call into has to be public.
+public abstract class CompiledFunction {
+    //tokens and boxed number literals the generated code refers to.
+    protected final Object[] constants;
+
+    protected CompiledFunction(Object[] constants){
+        this.constants = constants;
+    }
+
+    public abstract Object invoke(Interpreter interpreter, Object[] args);
+}
@@ -0,0 +1,513 @@
+package hyd;
+
+import hyd.vm.Chunk;
+import hyd.vm.OpCode;
+import hyd.vm.Prototype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//compiles a resolved program into bytecode for hyd.vm.VM. locals live in
+//stack slots of their function's frame, variables captured by a nested
+//function are reached through upvalues, everything else is a global.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+
+    private static class Local{
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue{
+        final boolean isLocal;
+        final int index;
+
+        Upvalue(boolean isLocal, int index){
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final Prototype proto;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+        int maxStack = 0;
+        //where the last instruction starts, for fusing it with the next.
+        int last = -1;
+        byte lastOp;
+        //the latest offset a jump lands on, no instruction there is fused
+        //with the one before it.
+        int target = -1;
+
+        FunctionState(FunctionState enclosing, Prototype proto){
+            this.enclosing = enclosing;
+            this.proto = proto;
+            //slot 0 holds the function being called.
+            locals.add(new Local("", 0));
+            stackDepth = 1;
+            maxStack = 1;
+        }
+    }
+
+    private FunctionState current;
+    private int line = 1;
+    private final ErrorReporter errors;
+    //the trees of the modules the program imports, and the ones already
+    //compiled in, which are kept across the prompt's lines.
+    private final Map<String, List<Stmt>> modules;
+    private final Set<String> imported;
+
+    Compiler(ErrorReporter errors, Map<String, List<Stmt>> modules, Set<String> imported){
+        this.errors = errors;
+        this.modules = modules;
+        this.imported = imported;
+    }
+
+    Prototype compile(List<Stmt> statements){
+        current = new FunctionState(null, new Prototype(null, 0));
+        for(Stmt stmt : statements){
+            compile(stmt);
+        }
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private Prototype endFunction(){
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+        Prototype proto = current.proto;
+        proto.finish(current.upvalues.size(), current.maxStack);
+        current = current.enclosing;
+        return proto;
+    }
+
+    //emitting:
+    private Chunk chunk(){
+        return current.proto.chunk();
+    }
+
+    //effect is the change in stack depth caused by the instruction.
+    private void emit(byte op, int effect){
+        if(!fuse(op)){
+            current.last = chunk().count();
+            current.lastOp = op;
+            chunk().write(op, line);
+        }
+        current.stackDepth += effect;
+        if(current.stackDepth > current.maxStack){
+            current.maxStack = current.stackDepth;
+        }
+    }
+
+    //turns the last instruction into the fused form of it and op, when
+    //there is one. op may only have an operand if the last one has none.
+    private boolean fuse(byte op){
+        if(current.last < 0 || current.target == chunk().count()) return false;
+        byte fused = fused(current.lastOp, op);
+        if(fused < 0) return false;
+        //errors are reported on the line of the instruction that can fail,
+        //the operator rather than the constant before it.
+        int at = current.lastOp == OpCode.NUMBER ? line : chunk().line(current.last);
+        chunk().patch(current.last, fused, at);
+        current.lastOp = fused;
+        return true;
+    }
+
+    private static byte fused(byte last, byte op){
+        switch (last){
+            case OpCode.SET_LOCAL: return op == OpCode.POP ? OpCode.SET_LOCAL_POP : -1;
+            case OpCode.SET_GLOBAL: return op == OpCode.POP ? OpCode.SET_GLOBAL_POP : -1;
+            case OpCode.NUMBER:
+                switch (op){
+                    case OpCode.ADD: return OpCode.ADD_NUMBER;
+                    case OpCode.SUBTRACT: return OpCode.SUBTRACT_NUMBER;
+                    case OpCode.MULTIPLY: return OpCode.MULTIPLY_NUMBER;
+                    case OpCode.DIVIDE: return OpCode.DIVIDE_NUMBER;
+                }
+                return -1;
+        }
+        if(op != OpCode.POP_JUMP_IF_FALSE) return -1;
+        switch (last){
+            case OpCode.GREATER: return OpCode.JUMP_IF_NOT_GREATER;
+            case OpCode.GREATER_EQUAL: return OpCode.JUMP_IF_NOT_GREATER_EQUAL;
+            case OpCode.LESS: return OpCode.JUMP_IF_NOT_LESS;
+            case OpCode.LESS_EQUAL: return OpCode.JUMP_IF_NOT_LESS_EQUAL;
+        }
+        return -1;
+    }
+
+    private void emit(byte op, int operand, int effect){
+        emit(op, effect);
+        chunk().writeShort(operand, line);
+    }
+
+    private void emitConstant(Object value){
+        emit(value instanceof Double ? OpCode.NUMBER : OpCode.CONSTANT, constant(value), 1);
+    }
+
+    private int constant(Object value){
+        int index = chunk().addConstant(value);
+        if(index > 0xffff){
+            errors.error(line, "Too many constants in one function.");
+        }
+        return index;
+    }
+
+    private int global(String name){
+        int index = chunk().addGlobal(name);
+        if(index > 0xffff){
+            errors.error(line, "Too many globals in one function.");
+        }
+        return index;
+    }
+
+    private int emitJump(byte op, int effect){
+        emit(op, effect);
+        chunk().writeShort(0xffff, line);
+        return chunk().count()-2;
+    }
+
+    private void patchJump(int offset){
+        int jump = chunk().count() - offset - 2;
+        if(jump > 0xffff){
+            errors.error(line, "Too much code to jump over.");
+        }
+        chunk().patchShort(offset, jump);
+        current.target = chunk().count();
+    }
+
+    private void emitLoop(int loopStart){
+        emit(OpCode.LOOP, 0);
+        int offset = chunk().count() - loopStart + 2;
+        if(offset > 0xffff){
+            errors.error(line, "Loop body too large.");
+        }
+        chunk().writeShort(offset, line);
+    }
+
+    //scopes:
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size()-1).depth > current.scopeDepth){
+            Local local = locals.remove(locals.size()-1);
+            emit(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP, -1);
+        }
+    }
+
+    private void addLocal(Token name){
+        if(current.locals.size() > 0xffff){
+            errors.error(name, "Too many local variables in function.");
+        }
+        current.locals.add(new Local(name.lexeme(), current.scopeDepth));
+    }
+
+    private static int resolveLocal(FunctionState state, String name){
+        for(int i = state.locals.size()-1;i >= 0;i--){
+            if(state.locals.get(i).name.equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name){
+        if(state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if(local != -1){
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, true, local);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if(upvalue != -1){
+            return addUpvalue(state, false, upvalue);
+        }
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, boolean isLocal, int index){
+        for(int i = 0;i < state.upvalues.size();i++){
+            Upvalue up = state.upvalues.get(i);
+            if(up.isLocal == isLocal && up.index == index) return i;
+        }
+        state.upvalues.add(new Upvalue(isLocal, index));
+        return state.upvalues.size()-1;
+    }
+
+    //loads and stores pick the cheapest place the name can be found in.
+    private void emitGet(Token name){
+        line = name.line;
+        int slot = resolveLocal(current, name.lexeme());
+        if(slot != -1){
+            emit(OpCode.GET_LOCAL, slot, 1);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme());
+        if(upvalue != -1){
+            emit(OpCode.GET_UPVALUE, upvalue, 1);
+            return;
+        }
+        emit(OpCode.GET_GLOBAL, global(name.lexeme()), 1);
+    }
+
+    private void emitSet(Token name){
+        line = name.line;
+        int slot = resolveLocal(current, name.lexeme());
+        if(slot != -1){
+            emit(OpCode.SET_LOCAL, slot, 0);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme());
+        if(upvalue != -1){
+            emit(OpCode.SET_UPVALUE, upvalue, 0);
+            return;
+        }
+        emit(OpCode.SET_GLOBAL, global(name.lexeme()), 0);
+    }
+
+    //declares name in the current scope, the value is already on the stack.
+    private void emitDefine(Token name){
+        line = name.line;
+        if(current.scopeDepth > 0){
+            addLocal(name);
+            return;
+        }
+        emit(OpCode.DEFINE_GLOBAL, global(name.lexeme()), -1);
+    }
+
+    //expressions:
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        emitSet(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.oper.line;
+
+        switch (expr.oper.type){
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case NOT_EQUAL: emit(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, -1); break;
+            case MINUS: emit(OpCode.SUBTRACT, -1); break;
+            case SLASH: emit(OpCode.DIVIDE, -1); break;
+            case STAR: emit(OpCode.MULTIPLY, -1); break;
+            case PLUS: emit(OpCode.ADD, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for(Expr arg : expr.arguments){
+            compile(arg);
+        }
+        line = expr.paren.line;
+        //a call whose value is returned as is reuses the caller's frame,
+        //the RETURN after it only runs when the callee is a native.
+        emit(expr.tail ? OpCode.TAIL_CALL : OpCode.CALL, expr.arguments.size(), -expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) emit(OpCode.NIL, 1);
+        else if(expr.value.equals(true)) emit(OpCode.TRUE, 1);
+        else if(expr.value.equals(false)) emit(OpCode.FALSE, 1);
+        else emitConstant(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.oper.line;
+
+        if(expr.oper.type == TokenType.OR){
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE, 0);
+            int endJump = emitJump(OpCode.JUMP, 0);
+            patchJump(elseJump);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }else{
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE, 0);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.oper.line;
+
+        switch (expr.oper.type){
+            case NOT: emit(OpCode.NOT, 0); break;
+            case MINUS: emit(OpCode.NEGATE, 0); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        emitGet(expr.name);
+        return null;
+    }
+
+    //statements:
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt s : stmt.statements){
+            compile(s);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        //a local function is visible inside its own body, so that it can
+        //call itself through an upvalue.
+        if(current.scopeDepth > 0){
+            addLocal(stmt.name);
+        }
+
+        current = new FunctionState(current, new Prototype(stmt.name.lexeme(), stmt.params.size()));
+        beginScope();
+        for(Token param : stmt.params){
+            addLocal(param);
+            current.stackDepth++;
+        }
+        if(current.stackDepth > current.maxStack) current.maxStack = current.stackDepth;
+        for(Stmt s : stmt.body){
+            compile(s);
+        }
+        List<Upvalue> upvalues = current.upvalues;
+        Prototype proto = endFunction();
+
+        line = stmt.name.line;
+        emit(OpCode.CLOSURE, constant(proto), 1);
+        for(Upvalue up : upvalues){
+            chunk().write(up.isLocal ? 1 : 0, line);
+            chunk().writeShort(up.index, line);
+        }
+
+        if(current.scopeDepth == 0){
+            emit(OpCode.DEFINE_GLOBAL, global(stmt.name.lexeme()), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch == null){
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP, 0);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    //a module is compiled in where it's first imported, imports only
+    //happen at the top level so its globals end up the same.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if(!imported.add(stmt.file)) return null;
+        for(Stmt imported : modules.get(stmt.file)){
+            compile(imported);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if(stmt.value != null) compile(stmt.value);
+        else emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if(stmt.initializer != null) compile(stmt.initializer);
+        else emit(OpCode.NIL, 1);
+        emitDefine(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count();
+        current.target = loopStart;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+}
@@ -1,26 +1,51 @@
 package hyd;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
+    private static final Object[] EMPTY = new Object[0];
+    //fills the global slots of names nothing has defined yet.
+    static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    //every scope is an array frame indexed by slot. locals get theirs from
+    //the Resolver, globals from the runtime's symbol table, and the global
+    //frame grows as names are handed out.
+    private Object[] slots;
 
     Environment(){
         enclosing = null;
+        slots = EMPTY;
     }
 
-    Environment(Environment enclosing){
+    Environment(Environment enclosing, int size){
         this.enclosing = enclosing;
+        this.slots = size == 0 ? EMPTY : new Object[size];
+    }
+
+    //the slot comes from the Resolver, blocks that share this frame
+    //reuse the slots of the ones that ended before them.
+    void define(int slot, Object value){
+        if(enclosing == null) reserve(slot);
+        slots[slot] = value;
+    }
+
+    //makes room for every global the symbol table handed out so far. the
+    //frame then doesn't move while the program runs, and a task writing a
+    //global can't write to a copy that is being replaced.
+    void reserveGlobals(Globals symbols){
+        reserve(symbols.count() - 1);
     }
 
-    void define(String name, Object value){
-        values.put(name, value);
+    private void reserve(int slot){
+        if(slot < slots.length) return;
+        int size = slots.length;
+        slots = Arrays.copyOf(slots, Math.max(slot + 1, size * 2));
+        Arrays.fill(slots, size, slots.length, UNDEFINED);
     }
 
-    Object getAt(int distance, String name){
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot){
+        return ancestor(distance).slots[slot];
     }
 
     Environment ancestor(int distance){
@@ -32,32 +57,34 @@ public class Environment {
         return env;
     }
 
-    Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
-        }
+    //globals, by the slot the Resolver looked up for the name.
+    Object get(Token name, int slot){
+        Object value = slot < slots.length ? slots[slot] : UNDEFINED;
+        if(value != UNDEFINED) return value;
 
-        if(enclosing != null) return enclosing.get(name);
+        throw new RuntimeError(name, "Undefined Variable: ["+ name.lexeme() + "]");
+    }
 
-        throw new RuntimeError(name, "Undefined Variable: ["+ name.lexeme + "]");
+    //a global or UNDEFINED, for embedders.
+    Object global(int slot){
+        return slot < slots.length ? slots[slot] : UNDEFINED;
     }
 
-    void assign(Token name, Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
-        }
+    int globalCount(){
+        return slots.length;
+    }
 
-        if(enclosing != null){
-            enclosing.assign(name, value);
+    void assign(Token name, int slot, Object value){
+        if(slot < slots.length && slots[slot] != UNDEFINED){
+            slots[slot] = value;
             return;
         }
 
-        throw new RuntimeError(name, "Undefined Variable: ["+ name.lexeme+"]");
+        throw new RuntimeError(name, "Undefined Variable: ["+ name.lexeme()+"]");
     }
 
-    void assignAt(int distance, Token name, Object value){
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value){
+        ancestor(distance).slots[slot] = value;
     }
 
 }
@@ -0,0 +1,61 @@
+package hyd;
+
+import java.nio.file.Path;
+
+//where the errors of one compilation or run go. the command line prints
+//them as they come, an embedder overrides the two report methods to keep
+//them instead. modules report from the loader's threads, so the flags are
+//volatile and reports are serialized.
+class ErrorReporter {
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+
+    void error(int line, String msg){
+        compileError(null, line, msg);
+    }
+
+    void error(Token token, String msg){
+        if(token.type==TokenType.EOF){
+            compileError(null, token.line, " at end"+msg);
+        }else{
+            compileError(null, token.line, " at '" + token.lexeme() + "'"+ msg);
+        }
+    }
+
+    void runtimeError(RuntimeError err){
+        runtimeError(err.getMessage(), err.token.line);
+    }
+
+    void runtimeError(String msg, int line){
+        hadRuntimeError = true;
+        reportRuntimeError(msg, line);
+    }
+
+    //a reporter for the errors of a module, which names its file and
+    //marks this one as failed too.
+    ErrorReporter module(final Path file){
+        return new ErrorReporter(){
+            @Override
+            void compileError(Path module, int line, String msg) {
+                hadError = true;
+                ErrorReporter.this.compileError(module == null ? file : module, line, msg);
+            }
+        };
+    }
+
+    void compileError(Path file, int line, String msg){
+        hadError = true;
+        synchronized (this){
+            reportCompileError(file, line, msg);
+        }
+    }
+
+    //file is null for the script itself.
+    protected void reportCompileError(Path file, int line, String msg){
+        System.err.println("\n" + (file == null ? "" : file + " ") + "Line: " + line + " |\tError: "+  msg);
+    }
+
+    protected void reportRuntimeError(String msg, int line){
+        System.out.println(msg + "\n[Line: " + line + "]");
+    }
+}
@@ -3,6 +3,7 @@ package hyd;
 import java.util.List;
 
 abstract class Expr{
+    boolean numeric;
     interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -16,6 +17,8 @@ abstract class Expr{
 static class Assign extends Expr{
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot;
     Assign(Token name, Expr value) {
     this.name= name;
     this.value= value;
@@ -30,6 +33,7 @@ static class Binary extends Expr{
     final Expr left;
     final Token oper;
     final Expr right;
+    BinaryNode node = BinaryNode.UNINITIALIZED;
     Binary(Expr left, Token oper, Expr right) {
     this.left= left;
     this.oper= oper;
@@ -45,6 +49,8 @@ static class Call extends Expr{
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    CallNode node = CallNode.UNINITIALIZED;
+    boolean tail;
     Call(Expr callee, Token paren, List<Expr> arguments) {
     this.callee= callee;
     this.paren= paren;
@@ -108,6 +114,8 @@ static class Unary extends Expr{
 }
 static class Variable extends Expr{
     final Token name;
+    int depth = -1;
+    int slot;
     Variable(Token name) {
     this.name= name;
     }
@@ -0,0 +1,67 @@
+package hyd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+//the symbol table of a HydRuntime, or of the command line. every name it
+//scans gets one Symbol, and the names used as globals a slot in the global
+//environment, the same for every module and interpreter of the runtime, so
+//resolved trees can be shared and cached and globals are reached by index
+//instead of name. locals never take a slot, so the global frame only grows
+//with the globals programs use. it goes away with the runtime.
+final class Globals {
+    private final ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<>();
+    //by slot, guarded by symbols.
+    private final List<Symbol> slots = new ArrayList<>();
+
+    Symbol intern(String name){
+        Symbol symbol = symbols.get(name);
+        if(symbol != null) return symbol;
+        synchronized (symbols){
+            symbol = symbols.get(name);
+            if(symbol == null){
+                symbol = new Symbol(name);
+                symbols.put(name, symbol);
+            }
+            return symbol;
+        }
+    }
+
+    //the global slot of a name, handed out the first time it's asked for.
+    int slot(Symbol symbol){
+        int slot = symbol.slot;
+        if(slot != Symbol.NONE) return slot;
+        synchronized (symbols){
+            if(symbol.slot == Symbol.NONE){
+                symbol.slot = slots.size();
+                slots.add(symbol);
+            }
+            return symbol.slot;
+        }
+    }
+
+    //for defining a global by name.
+    int slot(String name){
+        return slot(intern(name));
+    }
+
+    //the slot of a name, or Symbol.NONE when nothing has used it as a
+    //global. it's only a lookup, the table doesn't grow.
+    int find(String name){
+        Symbol symbol = symbols.get(name);
+        return symbol == null ? Symbol.NONE : symbol.slot;
+    }
+
+    int count(){
+        synchronized (symbols){
+            return slots.size();
+        }
+    }
+
+    String name(int slot){
+        synchronized (symbols){
+            return slots.get(slot).name;
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package hyd;
 
+import hyd.vm.Prototype;
+import hyd.vm.VM;
+import hyd.vm.VmError;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 enum TokenType{
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
@@ -18,7 +27,7 @@ enum TokenType{
     NOT, NOT_EQUAL, EQUAL, EQUAL_EQUAL,
     GREATER_EQUAL, LESS_EQUAL, GREATER, LESS,
 
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
     PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
     EOF
@@ -26,30 +35,70 @@ enum TokenType{
 }
 
 public class Hyd {
-    static Boolean hadError = false;
-    static Boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static final ErrorReporter errors = new ErrorReporter();
+    //the command line's symbol table, for the script, its modules and
+    //every line at the prompt.
+    private static final Globals symbols = new Globals();
+    private static final Modules loader = new Modules(symbols);
+    private static final Interpreter interpreter = new Interpreter(errors, symbols);
+    //set when running on the bytecode vm instead of the tree walker.
+    private static VM vm = null;
+    //modules the vm has run, the tree walker keeps its own.
+    private static final Set<String> vmImports = new HashSet<>();
+    //results kept per pure function under --memo.
+    private static final int MEMO_SIZE = 4096;
+    //whether scripts load and save their trees as .hydc files, off unless
+    //asked for so running a script never writes next to it on its own.
+    private static boolean cache = false;
 
     public static void main(String[] args) throws IOException{
-        if(args.length > 1){
-            System.out.println("USGAE: hyd <script>");
-            System.exit(64);
-        }else if(args.length==1){
-            runScript("/Users/frankenstein/IdeaProjects/hydlang/src/test/hi_func.hyd");
+        int first = 0;
+        for(;first < args.length && args[first].startsWith("--");first++){
+            switch (args[first]){
+                case "--vm": vm = new VM(); break;
+                case "--jit": interpreter.jit = new JitCompiler(); break;
+                case "--profile": interpreter.profiler = new Profiler(); break;
+                case "--memo": interpreter.memoSize = MEMO_SIZE; break;
+                case "--cache": cache = true; break;
+                default: usage();
+            }
+        }
+        //the jit, the profiler and the memo hook into the tree walker's calls.
+        if(vm != null && (interpreter.jit != null || interpreter.profiler != null || interpreter.memoSize > 0)) usage();
+        //purity is only known for what one resolver saw, a later prompt
+        //line could reassign a global a memoized function reads.
+        if(interpreter.memoSize > 0 && args.length == first) usage();
+
+        if(args.length - first > 1){
+            usage();
+        }else if(args.length - first == 1){
+            runScript(args[first]);
         }else{
-            //runPrompt();
-            runScript("/Users/frankenstein/IdeaProjects/hydlang/src/test/fibo_rec.hyd");
+            runPrompt();
         }
     }
 
+    private static void usage(){
+        System.out.println("USAGE: hyd [--vm | --jit] [--profile] [--memo] [--cache] <script>");
+        System.exit(64);
+    }
+
     //for running hyd-scripts
     private static void runScript(String path) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError){
+        Path script = Paths.get(path);
+        List<Stmt> statements = compile(script, errors, cache, symbols);
+        if(statements != null) execute(statements, script.toRealPath().toString());
+        if(interpreter.profiler != null){
+            Path collapsed = Paths.get(path + ".collapsed");
+            interpreter.profiler.finish();
+            interpreter.profiler.report(System.err);
+            interpreter.profiler.writeCollapsed(collapsed);
+            System.err.println("collapsed stacks written to " + collapsed);
+        }
+        if(errors.hadError){
             System.exit(65);
         }
-        if(hadRuntimeError){
+        if(errors.hadRuntimeError){
             System.exit(70);
         }
     }
@@ -63,45 +112,85 @@ public class Hyd {
             System.out.print("> ");
             String line = reader.readLine();
             if(line==null) break;
-            run(line);
-            hadError = false;
+            List<Stmt> statements = compile(new Scanner(line, errors, symbols), Paths.get(""));
+            if(statements != null) execute(statements, null);
+            errors.hadError = false;
+        }
+        if(interpreter.profiler != null){
+            interpreter.profiler.finish();
+            interpreter.profiler.report(System.err);
         }
     }
 
-    //the actual func initialising the scanning process for hyd-scripts:
-    private static void run(String src){
-        Scanner scanner = new Scanner(src);
-        ArrayList<Token> tokens = scanner.scan();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    //a script or module file, through its .hydc file when cache is set.
+    //scripts are streamed either way, the scanner only buffers the text of
+    //the current token.
+    static List<Stmt> compile(Path path, ErrorReporter errors, boolean cache, Globals symbols) throws IOException{
+        Charset charset = Charset.defaultCharset();
+        //its imports are relative to it.
+        Path dir = path.toAbsolutePath().getParent();
+        if(!cache){
+            try(Reader reader = new InputStreamReader(Files.newInputStream(path), charset)){
+                return compile(new Scanner(reader, errors, symbols), dir);
+            }catch (UncheckedIOException e){
+                throw e.getCause();
+            }
+        }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+        Path cached = ScriptCache.pathFor(path);
+        List<Stmt> statements = ScriptCache.load(cached, ScriptCache.digest(path, charset), symbols, dir);
+        if(statements != null) return statements;
+
+        //hashed again while it's scanned, so the tree is stored under the
+        //digest of exactly the text it was compiled from.
+        try(ScriptCache.Digest in = new ScriptCache.Digest(Files.newInputStream(path), charset)){
+            statements = compile(new Scanner(new InputStreamReader(in, charset), errors, symbols), dir);
+            if(statements != null) ScriptCache.store(cached, in.digest(), statements);
+            return statements;
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
 
-        if(hadError) return;
+    //the resolved and optimized tree, or null when there were errors. they
+    //go to the scanner's reporter. imports are relative to dir.
+    static List<Stmt> compile(Scanner scanner, Path dir){
+        Parser parser = new Parser(scanner, dir);
+        List<Stmt> statements = parser.parse();
 
-        interpreter.interpret(statements);
-    }
+        if(scanner.errors.hadError) return null;
 
-    static void error(int line, String msg){
-        report(line, msg);
-    }
+        Resolver resolver = new Resolver(scanner.errors, scanner.symbols);
+        resolver.resolve(statements);
+
+        if(scanner.errors.hadError) return null;
 
-    private static void report(int line, String msg){
-        System.err.println("\nLine: " + line + " |\tError: "+  msg);
-        hadError = true;
+        return new Optimizer().optimize(statements);
     }
 
-    static void error(Token token, String msg){
-        if(token.type==TokenType.EOF){
-            report(token.line, " at end"+msg);
-        }else{
-            report(token.line, " at '" + token.lexeme + "'"+ msg);
+    //file is the script's canonical path, or null at the prompt. it counts
+    //as imported so a cycle of imports back to it doesn't run it again.
+    private static void execute(List<Stmt> statements, String file){
+        //purity was worked out one file at a time, so a function could read
+        //a global that another file assigns.
+        Map<String, List<Stmt>> modules = loader.load(statements, file, errors, cache);
+        if(!modules.isEmpty()) interpreter.memoSize = 0;
+        if(errors.hadError) return;
+
+        if(vm != null){
+            if(file != null) vmImports.add(file);
+            Prototype script = new Compiler(errors, modules, vmImports).compile(statements);
+            if(errors.hadError) return;
+            try{
+                vm.interpret(script);
+            }catch (VmError err){
+                errors.runtimeError(err.getMessage(), err.line);
+            }
+            return;
         }
-    }
 
-    static void runtimeError(RuntimeError err){
-        System.out.println(err.getMessage() + "\n[Line: " + err.token.line + "]");
-        hadRuntimeError = true;
+        interpreter.modules.putAll(modules);
+        if(file != null) interpreter.imported.add(file);
+        interpreter.interpret(statements);
     }
 }
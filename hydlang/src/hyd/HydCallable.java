@@ -1,5 +1,7 @@
 package hyd;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface HydCallable {
@@ -7,4 +9,26 @@ interface HydCallable {
     Object call(Interpreter interpreter, List<Object> args);
     public String toString();
 
+    //entries for calls with up to four arguments, which call sites use
+    //instead of building a list. they're only called with the arity's
+    //number of arguments, a callable without its own goes through call().
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d){
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
 }
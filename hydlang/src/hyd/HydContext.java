@@ -0,0 +1,100 @@
+package hyd;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//the state of running programs: globals, output and the modules that have
+//run. contexts don't share anything, so every thread or request can have
+//its own. programs run one after another in a context see each other's
+//globals, like lines at the prompt.
+public final class HydContext {
+    private final Interpreter interpreter;
+    //globals the interpreter defines itself, left out of globals().
+    private final BitSet natives = new BitSet();
+
+    HydContext(boolean jit, Globals symbols){
+        interpreter = new Interpreter(new ErrorReporter(), symbols);
+        if(jit) interpreter.jit = new JitCompiler();
+        Environment globals = interpreter.globals;
+        for(int slot = 0;slot < globals.globalCount();slot++){
+            if(globals.global(slot) != Environment.UNDEFINED) natives.set(slot);
+        }
+    }
+
+    //defines every function of natives as a global. it is still left out
+    //of globals(), like the natives hyd has itself.
+    public void install(Natives library){
+        for(Map.Entry<String, HydCallable> function : library.functions.entrySet()){
+            interpreter.define(function.getKey(), function.getValue());
+            natives.set(interpreter.symbols.slot(function.getKey()));
+        }
+    }
+
+    //where print goes, standard output by default. it is flushed at the
+    //end of every run.
+    public void setOutput(Writer out){
+        interpreter.out = out instanceof PrintWriter ? (PrintWriter)out : new PrintWriter(out);
+    }
+
+    public void run(HydProgram program) throws HydException{
+        interpreter.modules.putAll(program.modules);
+        if(program.file != null) interpreter.imported.add(program.file);
+        try{
+            interpreter.run(program.statements);
+        }catch (RuntimeError e){
+            //with the errors of the tasks nobody joined.
+            StringBuilder message = new StringBuilder(e.getMessage());
+            for(Throwable failed : e.getSuppressed()){
+                message.append("\nLine ").append(((RuntimeError)failed).token.line).append(": ").append(failed.getMessage());
+            }
+            throw new HydException(message.toString(), e.token.line);
+        }
+    }
+
+    //the value of a global, null when it isn't defined. asking for a name
+    //no program or set() has used doesn't add it to the symbol table.
+    public Object get(String name){
+        int slot = interpreter.symbols.find(name);
+        if(slot == Symbol.NONE) return null;
+        Object value = interpreter.globals.global(slot);
+        return value == Environment.UNDEFINED ? null : LazyString.flat(value);
+    }
+
+    //defines a global. numbers become hyd numbers, doubles, and chars and
+    //other char sequences become strings, anything else is passed as is.
+    public void set(String name, Object value){
+        interpreter.define(name, value(value));
+    }
+
+    //like set(), but only for a name the runtime's programs already use as
+    //a global, returns whether it was defined. the symbol table doesn't
+    //grow, so a long-lived runtime can be handed any names, like the
+    //bindings of every request it serves.
+    public boolean bind(String name, Object value){
+        if(!Scanner.isIdentifier(name)) return false;
+        int slot = interpreter.symbols.find(name);
+        if(slot == Symbol.NONE) return false;
+        interpreter.globals.define(slot, value(value));
+        return true;
+    }
+
+    private static Object value(Object value){
+        if(value instanceof Number) return ((Number)value).doubleValue();
+        if(value instanceof Character || value instanceof CharSequence) return value.toString();
+        return value;
+    }
+
+    //every global the programs and set() have defined.
+    public Map<String, Object> globals(){
+        Map<String, Object> values = new LinkedHashMap<>();
+        Environment globals = interpreter.globals;
+        for(int slot = 0;slot < globals.globalCount();slot++){
+            Object value = globals.global(slot);
+            if(value != Environment.UNDEFINED && !natives.get(slot)) values.put(interpreter.symbols.name(slot), LazyString.flat(value));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,16 @@
+package hyd;
+
+//a program that didn't compile or stopped on a runtime error, for
+//embedders. the message holds every error found, the line is the first's.
+public class HydException extends Exception {
+    private final int line;
+
+    HydException(String message, int line){
+        super(message);
+        this.line = line;
+    }
+
+    public int getLine(){
+        return line;
+    }
+}
@@ -1,13 +1,24 @@
 package hyd;
 
-import com.sun.tools.doclint.Env;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class HydFunction implements HydCallable{
+    //contexts running one program share its declarations, so exactly one
+    //call sees the count reach the threshold and compiles.
+    private static final AtomicIntegerFieldUpdater<Stmt.Function> CALLS =
+            AtomicIntegerFieldUpdater.newUpdater(Stmt.Function.class, "calls");
 
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
+    //results by arguments, only for pure functions under --memo. it lives
+    //on the closure, since closures of one declaration can see different
+    //captured values.
+    Memo memo = null;
 
     HydFunction(Stmt.Function declaration, Environment environment){
         this.declaration = declaration;
@@ -19,22 +30,163 @@ public class HydFunction implements HydCallable{
         return declaration.params.size();
     }
 
+    void memoize(int size){
+        memo = new Memo(size);
+    }
+
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        Environment env = new Environment(closure);
-        for(int i = 0;i < declaration.params.size();i++){
-            env.define(declaration.params.get(i).lexeme, args.get(i));
+        if(memo == null) return trampoline(interpreter, callOnce(interpreter, args));
+
+        //tasks can share the function, a lookup reorders the entries too.
+        synchronized (memo){
+            Object result = memo.get(args);
+            if(result != null || memo.containsKey(args)) return result;
+        }
+        //a call that fails leaves nothing behind. tail calls into a memoized
+        //function don't come through here, they have to keep the stack flat.
+        Object result = trampoline(interpreter, callOnce(interpreter, args));
+        synchronized (memo){
+            memo.put(args, result);
         }
+        return result;
+    }
+
+    //the arguments go straight into the frame, unless something needs
+    //them as a list: a memo for its key or the profiler.
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if(memo != null || interpreter.profiler != null) return call(interpreter, Collections.emptyList());
+        return trampoline(interpreter, enter(interpreter, 0, null, null, null, null));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if(memo != null || interpreter.profiler != null) return call(interpreter, Arrays.asList(a));
+        return trampoline(interpreter, enter(interpreter, 1, a, null, null, null));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if(memo != null || interpreter.profiler != null) return call(interpreter, Arrays.asList(a, b));
+        return trampoline(interpreter, enter(interpreter, 2, a, b, null, null));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if(memo != null || interpreter.profiler != null) return call(interpreter, Arrays.asList(a, b, c));
+        return trampoline(interpreter, enter(interpreter, 3, a, b, c, null));
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        if(memo != null || interpreter.profiler != null) return call(interpreter, Arrays.asList(a, b, c, d));
+        return trampoline(interpreter, enter(interpreter, 4, a, b, c, d));
+    }
+
+    private Object enter(Interpreter interpreter, int count, Object a, Object b, Object c, Object d){
+        CompiledFunction compiled = compiled(interpreter);
+        if(compiled != null){
+            Object[] args = new Object[count];
+            if(count > 0) args[0] = a;
+            if(count > 1) args[1] = b;
+            if(count > 2) args[2] = c;
+            if(count > 3) args[3] = d;
+            return compiled.invoke(interpreter, args);
+        }
+
+        Environment env = new Environment(closure, declaration.locals);
+        //the parameters take the first slots of the frame.
+        if(count > 0) env.define(0, a);
+        if(count > 1) env.define(1, b);
+        if(count > 2) env.define(2, c);
+        if(count > 3) env.define(3, d);
+        return run(interpreter, env);
+    }
+
+    //least recently used entries go first once it is full.
+    static class Memo extends LinkedHashMap<List<Object>, Object>{
+        private final int size;
+
+        Memo(int size){
+            super(16, 0.75f, true);
+            this.size = size;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest){
+            return size() > size;
+        }
+    }
+
+    //returned by a function that ended in a tail call. the callee and its
+    //arguments are left on the interpreter for trampoline() to run.
+    static final Object TAIL_CALL = new Object();
+
+    //runs tail calls one after another, each in place of the function
+    //that made it, until one of them returns a value.
+    static Object trampoline(Interpreter interpreter, Object result){
+        while(result == TAIL_CALL){
+            interpreter.poll();
+            HydFunction function = interpreter.tailCallee;
+            List<Object> args = interpreter.tailArgs;
+            interpreter.tailCallee = null;
+            interpreter.tailArgs = null;
+            result = function.callOnce(interpreter, args);
+        }
+        return result;
+    }
+
+    private Object callOnce(Interpreter interpreter, List<Object> args){
+        Profiler profiler = interpreter.profiler;
+        if(profiler == null) return invoke(interpreter, args);
+
+        profiler.enter(declaration, declaration.name);
         try{
-            interpreter.executeBlock(declaration.body, env);
-        }catch (Return ret){
-            return ret.value;
+            return invoke(interpreter, args);
+        }finally {
+            profiler.exit();
+        }
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> args){
+        CompiledFunction compiled = compiled(interpreter);
+        if(compiled != null) return compiled.invoke(interpreter, args.toArray());
+
+        Environment env = new Environment(closure, declaration.locals);
+        for(int i = 0;i < declaration.params.size();i++){
+            env.define(i, args.get(i));
+        }
+        return run(interpreter, env);
+    }
+
+    //the jit's code for the function, null until it's hot or when there's
+    //no jit. every call counts toward compiling it.
+    private CompiledFunction compiled(Interpreter interpreter){
+        if(interpreter.jit == null) return null;
+        CompiledFunction compiled = declaration.compiled;
+        if(compiled == null && declaration.calls < JitCompiler.THRESHOLD
+                && CALLS.incrementAndGet(declaration) == JitCompiler.THRESHOLD){
+            compiled = interpreter.jit.compile(declaration);
+        }
+        return compiled;
+    }
+
+    //runs the body in a frame holding the arguments.
+    private Object run(Interpreter interpreter, Environment env){
+        interpreter.poll();
+        interpreter.executeBlock(declaration.body, env);
+        if(interpreter.returning){
+            Object value = interpreter.returnValue;
+            interpreter.returning = false;
+            interpreter.returnValue = null;
+            return value;
         }
         return null;
     }
 
     @Override
     public String toString(){
-        return "<function decl := " + declaration.name.lexeme + "( params :" + this.arity() + ")";
+        return "<function decl := " + declaration.name.lexeme() + "( params :" + this.arity() + ")";
     }
 }
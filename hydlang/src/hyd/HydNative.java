@@ -0,0 +1,14 @@
+package hyd;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//marks a public static method for Natives.add, which makes it a hyd
+//native under the method's name, or value() when that is given.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface HydNative {
+    String value() default "";
+}
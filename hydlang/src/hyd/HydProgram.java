@@ -0,0 +1,30 @@
+package hyd;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+//a compiled script along with the modules it imports. any number of
+//contexts can run it at the same time. running it does write to the tree,
+//but only to caches whose races are benign:
+//  - Expr.Binary and Expr.Call nodes swap in a specialized BinaryNode or
+//    CallNode. those are immutable and check their own guard, so a thread
+//    seeing another's choice still gets the right answer, at worst a
+//    slower one.
+//  - string tokens build their lexeme on demand, any thread's is equal.
+//  - under the jit, Stmt.Function counts calls atomically, so one call
+//    compiles it, and publishes the code through a volatile field.
+//module paths are worked out by the parser, loading modules doesn't
+//change the trees.
+public final class HydProgram {
+    final List<Stmt> statements;
+    final Map<String, List<Stmt>> modules;
+    //the canonical path of the script, null when it wasn't compiled from a file.
+    final String file;
+
+    HydProgram(List<Stmt> statements, Map<String, List<Stmt>> modules, String file){
+        this.statements = Collections.unmodifiableList(statements);
+        this.modules = Collections.unmodifiableMap(modules);
+        this.file = file;
+    }
+}
@@ -0,0 +1,104 @@
+package hyd;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+//the embedding api. a runtime compiles source into programs, which are
+//run in contexts, each with globals and output of its own:
+//
+//  HydRuntime runtime = new HydRuntime();
+//  HydProgram program = runtime.compile("print greeting + \"!\";");
+//  HydContext context = runtime.newContext();
+//  context.set("greeting", "hi");
+//  context.run(program);
+//
+//a runtime and its programs can be shared by any number of threads, a
+//context is used by one thread at a time. the names its programs use are
+//kept in a symbol table of its own, which goes away with it, so programs
+//and contexts only work with the runtime that made them.
+public final class HydRuntime {
+    private final boolean jit;
+    private final Globals symbols = new Globals();
+    private final Modules modules = new Modules(symbols);
+
+    public HydRuntime(){
+        this(false);
+    }
+
+    //with jit set, hot functions are compiled to jvm bytecode. the code is
+    //kept with the program, contexts running it later start out compiled.
+    public HydRuntime(boolean jit){
+        this.jit = jit;
+        //the natives take the first slots, before any program's globals,
+        //so a context's global frame only grows once when it first runs.
+        Interpreter.defineNatives(symbols);
+    }
+
+    //imports are relative to the working directory.
+    public HydProgram compile(String source) throws HydException{
+        return compile(new Scanner(source, new Collector(), symbols), Paths.get(""), null);
+    }
+
+    //imports are relative to dir.
+    public HydProgram compile(Reader source, Path dir) throws HydException{
+        try{
+            return compile(new Scanner(source, new Collector(), symbols), dir, null);
+        }catch (UncheckedIOException e){
+            throw new HydException("Can't read the script: " + e.getCause().getMessage(), 0);
+        }
+    }
+
+    public HydProgram compile(Path script) throws HydException, IOException{
+        //a module importing the script back doesn't run it again.
+        String file = script.toRealPath().toString();
+        try(Reader reader = new InputStreamReader(Files.newInputStream(script), Charset.defaultCharset())){
+            return compile(new Scanner(reader, new Collector(), symbols), script.toAbsolutePath().getParent(), file);
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    //file is the script's canonical path, null when the source isn't one.
+    private HydProgram compile(Scanner scanner, Path dir, String file) throws HydException{
+        Collector errors = (Collector)scanner.errors;
+        List<Stmt> statements = Hyd.compile(scanner, dir);
+        if(statements == null) throw errors.exception();
+        //modules aren't cached as .hydc files, the embedder's scripts may
+        //live somewhere it can't write to.
+        Map<String, List<Stmt>> imported = modules.load(statements, file, errors, false);
+        if(errors.hadError) throw errors.exception();
+        return new HydProgram(statements, imported, file);
+    }
+
+    public HydContext newContext(){
+        return new HydContext(jit, symbols);
+    }
+
+    //keeps compile errors to throw instead of printing them.
+    private static class Collector extends ErrorReporter{
+        private final StringBuilder messages = new StringBuilder();
+        private int line = 0;
+
+        @Override
+        protected void reportCompileError(Path file, int line, String msg) {
+            if(messages.length() == 0){
+                this.line = line;
+            }else{
+                messages.append('\n');
+            }
+            messages.append(file == null ? "" : file + " ").append("Line ").append(line).append(":").append(msg);
+        }
+
+        HydException exception(){
+            return new HydException(messages.toString(), line);
+        }
+    }
+}
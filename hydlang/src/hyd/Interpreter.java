@@ -1,18 +1,63 @@
 package hyd;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
-    final Environment globals = new Environment();
-    private Environment env = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    //the symbol table of the runtime whose programs this runs.
+    final Globals symbols;
+    private Environment env;
+    //compiles hot functions to jvm bytecode, null unless --jit was given.
+    JitCompiler jit = null;
+    //set by --profile. functions profile themselves, natives are profiled at the call.
+    Profiler profiler = null;
+    final ErrorReporter errors;
+    //where print goes, flushed when a program ends.
+    PrintWriter out = Output.standard();
+    //the trees of the modules a program can import, by canonical path, and
+    //the ones this interpreter has run.
+    final Map<String, List<Stmt>> modules = new HashMap<>();
+    final Set<String> imported = new HashSet<>();
+    //entries kept per pure function by --memo, 0 when it's off.
+    int memoSize = 0;
+    //the tasks spawned by this interpreter and its forks.
+    final Tasks.Group tasks;
+    //set by a return statement, every statement list and loop stops as
+    //soon as it sees it, until the function call that owns it clears it.
+    boolean returning = false;
+    Object returnValue;
+    //the call a function returned HydFunction.TAIL_CALL for.
+    HydFunction tailCallee;
+    List<Object> tailArgs;
+    //operands of the last numeric operator, see numberOperands.
+    double leftNumber;
+    double rightNumber;
+
+    Interpreter(ErrorReporter errors, Globals symbols){
+        this.errors = errors;
+        this.symbols = symbols;
+        globals = env = new Environment();
+        tasks = new Tasks.Group();
+        for(Map.Entry<String, HydCallable> entry : NATIVES.entrySet()){
+            define(entry.getKey(), entry.getValue());
+        }
+    }
+
+    //the natives every interpreter starts out with. they keep no state of
+    //their own, so they're shared.
+    private static final Map<String, HydCallable> NATIVES = natives();
 
-    Interpreter(){
-        globals.define("clock", new HydCallable() {
+    private static Map<String, HydCallable> natives(){
+        Map<String, HydCallable> natives = new LinkedHashMap<>();
+        natives.put("clock", new HydCallable() {
             @Override
             public int arity() {
                 return 0;
@@ -27,94 +72,156 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 return "<native function>";
             }
         });
+        natives.put("flush", new HydCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> args) {
+                interpreter.out.flush();
+                return null;
+            }
+            @Override
+            public String toString(){
+                return "<native function>";
+            }
+        });
+        Tasks.define(natives);
+        return natives;
+    }
+
+    //hands out the natives' slots in a symbol table, a new one gives them
+    //the first.
+    static void defineNatives(Globals symbols){
+        for(String name : NATIVES.keySet()){
+            symbols.slot(name);
+        }
+    }
+
+    //an interpreter for a spawned task, on a thread of its own. it shares
+    //the globals, output and settings of this one, the profiler only
+    //follows the main thread.
+    private Interpreter(Interpreter parent){
+        errors = parent.errors;
+        symbols = parent.symbols;
+        globals = env = parent.globals;
+        jit = parent.jit;
+        out = parent.out;
+        memoSize = parent.memoSize;
+        tasks = parent.tasks;
+    }
+
+    Interpreter fork(){
+        return new Interpreter(this);
+    }
+
+    //natives and values set by embedders.
+    void define(String name, Object value){
+        globals.define(symbols.slot(name), value);
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        return expr.node.execute(this, expr);
+    }
 
-        switch (expr.oper.type){
-            case GREATER:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left >= (double) right;
-            case LESS:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left <= (double) right;
-            case NOT_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-            case MINUS:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left - (double) right;
-            case SLASH:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.oper, left, right);
-                return (double)left * (double) right;
-            case PLUS:
-                if(left instanceof Double && right instanceof Double){
-                    return (double)left + (double) right;
-                }
-                if(left instanceof String && right instanceof String){
-                    return (String)left + (String) right;
-                }
-
-                throw new RuntimeError(expr.oper, "Operands must be of the same type (double or string).");
+    //evaluates an expression the Resolver marked numeric, keeping every
+    //intermediate result of it a primitive double.
+    double evaluateDouble(Expr expr){
+        if(expr instanceof Expr.Binary){
+            return ((Expr.Binary)expr).node.executeDouble(this, (Expr.Binary)expr);
+        }
+        if(expr instanceof Expr.Literal){
+            return (double)((Expr.Literal)expr).value;
+        }
+        if(expr instanceof Expr.Grouping){
+            return evaluateDouble(((Expr.Grouping)expr).expression);
         }
 
-        return null;
+        Expr.Unary unary = (Expr.Unary)expr;
+        if(unary.right.numeric){
+            return -evaluateDouble(unary.right);
+        }
+        Object right = evaluate(unary.right);
+        checkNumberOperand(unary.oper, right);
+        return -(double)right;
+    }
+
+    //evaluates both operands of a numeric operator into leftNumber and
+    //rightNumber. a side that isn't known to be numeric is boxed and only
+    //checked once both sides ran, same as the generic path would.
+    void numberOperands(Expr.Binary expr){
+        double left = 0, right = 0;
+        Object boxedLeft = null, boxedRight = null;
+
+        if(expr.left.numeric) left = evaluateDouble(expr.left);
+        else boxedLeft = evaluate(expr.left);
+        if(expr.right.numeric) right = evaluateDouble(expr.right);
+        else boxedRight = evaluate(expr.right);
+
+        if(!expr.left.numeric || !expr.right.numeric){
+            if(!expr.left.numeric && !(boxedLeft instanceof Double) ||
+                    !expr.right.numeric && !(boxedRight instanceof Double)){
+                throw new RuntimeError(expr.oper, "Operands must be numbers.");
+            }
+            if(!expr.left.numeric) left = (double)boxedLeft;
+            if(!expr.right.numeric) right = (double)boxedRight;
+        }
+
+        leftNumber = left;
+        rightNumber = right;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        if(count <= 4 && !expr.tail && profiler == null){
+            Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+            Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+            Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+            Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+            return expr.node.call(this, expr, callee, count, a, b, c, d);
+        }
+
         List<Object> args = new ArrayList<>();
 
         for(Expr arg : expr.arguments){
             args.add(evaluate(arg));
         }
 
-        if(!(callee instanceof HydCallable)){
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
-        }
-
-        HydCallable function = (HydCallable)callee;
-
-        if(args.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected "+ function.arity() + "args but got "+
-                    args.size() + ".");
+        if(expr.tail && callee instanceof HydFunction){
+            CallNode.callable(callee, args.size(), expr.paren);
+            tailCallee = (HydFunction)callee;
+            tailArgs = args;
+            return HydFunction.TAIL_CALL;
         }
 
-        return function.call(this, args);
-    }
-
-    private void checkNumberOperands(Token oper, Object left, Object right){
-        if(left instanceof Double && right instanceof Double){
-            return;
+        if(profiler != null && callee instanceof HydCallable && !(callee instanceof HydFunction)){
+            profiler.enter(callee, expr.callee instanceof Expr.Variable ? ((Expr.Variable)expr.callee).name : null);
+            try{
+                return expr.node.call(this, expr, callee, args);
+            }finally {
+                profiler.exit();
+            }
         }
-        throw new RuntimeError(oper, "Operands must be numbers.");
+        return expr.node.call(this, expr, callee, args);
     }
 
-    private void checkNumberOperand(Token oper, Object operand) {
+    static void checkNumberOperand(Token oper, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(oper, "Operand must be a number.");
     }
 
-    private boolean isEqual(Object left, Object right){
+    static boolean isEqual(Object left, Object right){
         if(left == null && right == null) return true;
         if(left == null) return false;
 
-        return left.equals(right);
+        return LazyString.flat(left).equals(LazyString.flat(right));
     }
 
     @Override
@@ -122,7 +229,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr){
+    Object evaluate(Expr expr){
         return expr.accept(this);
     }
 
@@ -146,14 +253,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if(expr.numeric){
+            return evaluateDouble(expr);
+        }
+
         Object right = evaluate(expr.right);
 
         switch (expr.oper.type) {
-            case NOT_EQUAL:
+            case NOT:
                 return !(isTheTruth(right));
-            case MINUS:
-                checkNumberOperand(expr.oper, right);
-                return -(double) right;
         }
 
         return null;
@@ -162,40 +270,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
 
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr){
-        Integer dist = locals.get(expr);
-        if(dist != null){
-            return env.getAt(dist, name.lexeme);
+        if(expr.depth >= 0){
+            return env.getAt(expr.depth, expr.slot);
         }else{
-            return globals.get(name);
+            return globals.get(expr.name, expr.slot);
         }
     }
 
-    private boolean isTheTruth(Object obj) {
+    static boolean isTheTruth(Object obj) {
         if(obj == null) return false;
         if(obj instanceof Boolean) return (boolean) obj;
         return true;
     }
 
     void interpret(List<Stmt> statements){
+        try{
+            run(statements);
+        }catch (RuntimeError r){
+            errors.runtimeError(r);
+            for(Throwable failed : r.getSuppressed()){
+                errors.runtimeError((RuntimeError)failed);
+            }
+        }
+    }
+
+    //runs top-level statements, leaving runtime errors to the caller. the
+    //tasks the statements spawned are stopped once they end, the errors of
+    //the ones nobody joined come after the run's own, as suppressed ones
+    //when it has one. the output is flushed before the caller sees them.
+    void run(List<Stmt> statements){
+        globals.reserveGlobals(symbols);
+        RuntimeError error = null;
         try{
             for(Stmt stmt : statements){
                 execute(stmt);
             }
-        }catch (RuntimeError r){
-            Hyd.runtimeError(r);
+        }catch (RuntimeError e){
+            error = e;
+        }finally {
+            for(RuntimeError failed : tasks.stop()){
+                if(error == null) error = failed;
+                else error.addSuppressed(failed);
+            }
+            out.flush();
         }
+        if(error != null) throw error;
     }
 
-    private void execute(Stmt statement){
-        statement.accept(this);
+    //ends a task whose run is over, called on every loop and call.
+    void poll(){
+        if(tasks.stopped) throw new Tasks.Stopped();
     }
 
-    void resolve(Expr expr, int depth){
-        locals.put(expr, depth);
+    private void execute(Stmt statement){
+        statement.accept(this);
     }
 
     private String Stringify(Object obj){
@@ -215,7 +343,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(env));
+        //a block whose locals nothing captures keeps them in the frame
+        //it runs in.
+        if(stmt.flat){
+            for(Stmt statement : stmt.statements){
+                execute(statement);
+                if(returning) break;
+            }
+            return null;
+        }
+        executeBlock(stmt.statements, new Environment(env, stmt.locals));
         return null;
     }
 
@@ -227,7 +364,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
             for(Stmt stmt : statements){
                 execute(stmt);
-
+                if(returning) break;
             }
         }finally {
             this.env = previous;
@@ -245,11 +382,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         //define a hydfunc instance capturing the env present at the time
         //of declaration of the function.
         HydFunction func = new HydFunction(stmt, env);
-        env.define(stmt.name.lexeme, func);
+        if(memoSize > 0 && stmt.pure) func.memoize(memoSize);
+        env.define(stmt.slot, func);
 
         return null;
     }
 
+    //a module runs the first time it's imported, in the global scope like
+    //the importing script.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if(!imported.add(stmt.file)) return null;
+        for(Stmt statement : modules.get(stmt.file)){
+            execute(statement);
+        }
+        return null;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         if(isTheTruth(evaluate(stmt.condition))){
@@ -262,17 +411,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(Stringify(value));
+        print(evaluate(stmt.expression));
         return null;
     }
 
+    void print(Object value){
+        out.println(Stringify(value));
+    }
+
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if(stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        returning = true;
+        return null;
     }
 
     @Override
@@ -281,7 +435,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
-        env.define(stmt.name.lexeme, value);
+        env.define(stmt.slot, value);
         return null;
     }
 
@@ -289,6 +443,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Void visitWhileStmt(Stmt.While stmt) {
         while(isTheTruth(evaluate(stmt.condition))){
             execute(stmt.body);
+            if(returning) break;
+            poll();
         }
         return null;
     }
@@ -297,11 +453,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer dist = locals.get(expr);
-        if(dist != null){
-            env.assignAt(dist, expr.name, value);
+        if(expr.depth >= 0){
+            env.assignAt(expr.depth, expr.slot, value);
         }else{
-            globals.assign(expr.name, value);
+            globals.assign(expr.name, expr.slot, value);
         }
         return value;
     }
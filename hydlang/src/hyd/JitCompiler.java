@@ -0,0 +1,428 @@
+package hyd;
+
+import hyd.jit.ClassWriter;
+import hyd.jit.Code;
+import hyd.jit.Loader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static hyd.jit.Code.*;
+
+//compiles the body of a hot function into a jvm class whose invoke method
+//runs it, letting the jvm's own jit take it from there. locals become jvm
+//locals and numeric expressions stay primitive doubles. only functions
+//that don't capture anything and don't declare functions of their own are
+//compiled, the rest keep running on the tree walker.
+class JitCompiler {
+    //calls a function takes before it gets compiled.
+    static final int THRESHOLD = 1000;
+
+    private static final String RUNTIME = "hyd/JitRuntime";
+    private static final String COMPILED = "hyd/CompiledFunction";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "Lhyd/Token;";
+    private static final String INTERPRETER = "Lhyd/Interpreter;";
+    private static final int THIS = 0, INTERP = 1, ARGS = 2;
+
+    private int count = 0;
+
+    private static class Unsupported extends RuntimeException{
+        Unsupported(){
+            super(null, null, false, false);
+        }
+    }
+
+    //compiles the declaration and caches the result on it, returns null
+    //when the function uses something the jit doesn't handle. tasks can
+    //get a function hot together, only one of them compiles it.
+    synchronized CompiledFunction compile(Stmt.Function declaration){
+        if(declaration.compiled != null) return declaration.compiled;
+        String name = "hyd/jit/Fn$" + declaration.name.lexeme() + "$" + (count++);
+        try{
+            FunctionCompiler compiler = new FunctionCompiler(name);
+            byte[] bytes = compiler.compile(declaration);
+            Class<?> type = new Loader(JitCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+            CompiledFunction compiled = (CompiledFunction)type.getConstructor(Object[].class)
+                    .newInstance((Object)compiler.constants.toArray());
+            declaration.compiled = compiled;
+            return compiled;
+        }catch (Unsupported e){
+            return null;
+        }catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Couldn't load compiled function " + name, e);
+        }
+    }
+
+    private static class FunctionCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+        private final ClassWriter writer;
+        private Code code;
+        final List<Object> constants = new ArrayList<>();
+
+        FunctionCompiler(String name){
+            writer = new ClassWriter(name, COMPILED);
+            Code init = writer.method("<init>", "([" + OBJECT + ")V", 2);
+            init.aload(THIS);
+            init.aload(1);
+            init.invoke(INVOKESPECIAL, COMPILED, "<init>", "([" + OBJECT + ")V");
+            init.op(RETURN, 0);
+        }
+
+        byte[] compile(Stmt.Function function){
+            //locals past 255 would need the wide prefix.
+            if(local(function.locals) > 256) throw new Unsupported();
+            code = writer.method("invoke", "(" + INTERPRETER + "[" + OBJECT + ")" + OBJECT, ARGS + 1);
+            for(int i = 0;i < function.params.size();i++){
+                code.aload(ARGS);
+                code.iconst(i);
+                code.op(AALOAD, -1);
+                code.astore(local(i));
+            }
+            for(Stmt stmt : function.body){
+                stmt.accept(this);
+            }
+            code.op(ACONST_NULL, 1);
+            code.op(ARETURN, -1);
+            return writer.toBytes();
+        }
+
+        //the jvm local of a slot in the function's frame.
+        private static int local(int slot){
+            return ARGS + 1 + slot;
+        }
+
+        //the jvm local of a resolved variable, anything the function
+        //would have to reach through its closure for isn't supported.
+        private int local(int depth, int slot){
+            if(depth != 0) throw new Unsupported();
+            return local(slot);
+        }
+
+        private void constant(Object value){
+            code.aload(THIS);
+            code.field(GETFIELD, COMPILED, "constants", "[" + OBJECT);
+            code.iconst(constants.size());
+            code.op(AALOAD, -1);
+            constants.add(value);
+        }
+
+        private void token(Token token){
+            constant(token);
+            code.type(CHECKCAST, "hyd/Token");
+        }
+
+        //the slot goes in as a bipush or sipush operand.
+        private void global(int slot){
+            if(slot > Short.MAX_VALUE) throw new Unsupported();
+            code.iconst(slot);
+        }
+
+        private void runtime(String name, String descriptor){
+            code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+        }
+
+        //leaves the value of an expression on the stack as an Object.
+        private void object(Expr expr){
+            if(expr.numeric && !(expr instanceof Expr.Literal)){
+                number(expr);
+                code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            }else{
+                expr.accept(this);
+            }
+        }
+
+        //leaves the value of a numeric expression on the stack as a double.
+        private void number(Expr expr){
+            if(expr instanceof Expr.Literal){
+                code.ldc((double)((Expr.Literal)expr).value);
+            }else if(expr instanceof Expr.Grouping){
+                number(((Expr.Grouping)expr).expression);
+            }else if(expr instanceof Expr.Unary){
+                Expr.Unary unary = (Expr.Unary)expr;
+                if(unary.right.numeric){
+                    number(unary.right);
+                    code.op(DNEG, 0);
+                }else{
+                    object(unary.right);
+                    token(unary.oper);
+                    runtime("negate", "(" + OBJECT + TOKEN + ")D");
+                }
+            }else{
+                Expr.Binary binary = (Expr.Binary)expr;
+                if(binary.left.numeric && binary.right.numeric){
+                    number(binary.left);
+                    number(binary.right);
+                    switch (binary.oper.type){
+                        case PLUS: code.op(DADD, -2); break;
+                        case MINUS: code.op(DSUB, -2); break;
+                        case STAR: code.op(DMUL, -2); break;
+                        default: code.op(DDIV, -2); break;
+                    }
+                }else{
+                    String helper;
+                    switch (binary.oper.type){
+                        case MINUS: helper = "subtract"; break;
+                        case STAR: helper = "multiply"; break;
+                        default: helper = "divide"; break;
+                    }
+                    operands(binary);
+                    runtime(helper, "(" + OBJECT + OBJECT + TOKEN + ")D");
+                }
+            }
+        }
+
+        private void operands(Expr.Binary binary){
+            object(binary.left);
+            object(binary.right);
+            token(binary.oper);
+        }
+
+        //leaves 1 or 0 on the stack, for conditions.
+        private void truth(Expr expr){
+            if(expr instanceof Expr.Binary && comparison((Expr.Binary)expr)) return;
+            object(expr);
+            runtime("isTruthy", "(" + OBJECT + ")Z");
+        }
+
+        private boolean comparison(Expr.Binary binary){
+            String helper;
+            int jump, compare;
+            switch (binary.oper.type){
+                case GREATER: helper = "greater"; compare = DCMPL; jump = IFLE; break;
+                case GREATER_EQUAL: helper = "greaterEqual"; compare = DCMPL; jump = IFLT; break;
+                case LESS: helper = "less"; compare = DCMPG; jump = IFGE; break;
+                case LESS_EQUAL: helper = "lessEqual"; compare = DCMPG; jump = IFGT; break;
+                case EQUAL_EQUAL:
+                case NOT_EQUAL:
+                    object(binary.left);
+                    object(binary.right);
+                    runtime("isEqual", "(" + OBJECT + OBJECT + ")Z");
+                    if(binary.oper.type == TokenType.NOT_EQUAL) not();
+                    return true;
+                default:
+                    return false;
+            }
+
+            if(binary.left.numeric && binary.right.numeric){
+                number(binary.left);
+                number(binary.right);
+                code.op(compare, -3);
+                branch(jump);
+            }else{
+                operands(binary);
+                runtime(helper, "(" + OBJECT + OBJECT + TOKEN + ")Z");
+            }
+            return true;
+        }
+
+        //turns a jump that's taken when the result is false into 1 or 0.
+        private void branch(int jump){
+            Code.Label no = code.label();
+            Code.Label end = code.label();
+            code.jump(jump, no);
+            int depth = code.stack();
+            code.op(ICONST_1, 1);
+            code.jump(GOTO, end);
+            code.mark(no);
+            code.stack(depth);
+            code.op(ICONST_0, 1);
+            code.mark(end);
+        }
+
+        private void not(){
+            branch(IFNE);
+        }
+
+        private void bool(){
+            code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            object(expr.value);
+            code.op(DUP, 1);
+            if(expr.depth >= 0){
+                code.astore(local(expr.depth, expr.slot));
+            }else{
+                code.aload(INTERP);
+                token(expr.name);
+                global(expr.slot);
+                runtime("setGlobal", "(" + OBJECT + INTERPRETER + TOKEN + "I)V");
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            if(comparison(expr)){
+                bool();
+            }else{
+                //numeric ones went through number(), so this is a generic add.
+                operands(expr);
+                runtime("add", "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            call(expr);
+            runtime(expr.tail ? "tailCall" : "call",
+                    "(" + OBJECT + "[" + OBJECT + INTERPRETER + TOKEN + ")" + OBJECT);
+            return null;
+        }
+
+        //pushes what JitRuntime.call takes.
+        private void call(Expr.Call expr){
+            object(expr.callee);
+            code.iconst(expr.arguments.size());
+            code.type(ANEWARRAY, "java/lang/Object");
+            for(int i = 0;i < expr.arguments.size();i++){
+                code.op(DUP, 1);
+                code.iconst(i);
+                object(expr.arguments.get(i));
+                code.op(AASTORE, -3);
+            }
+            code.aload(INTERP);
+            token(expr.paren);
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            object(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if(expr.value == null){
+                code.op(ACONST_NULL, 1);
+            }else if(expr.value instanceof String){
+                code.ldc((String)expr.value);
+            }else if(expr.value instanceof Boolean){
+                code.field(GETSTATIC, "java/lang/Boolean", (boolean)expr.value ? "TRUE" : "FALSE",
+                        "Ljava/lang/Boolean;");
+            }else{
+                //boxed once here, so using it as an Object doesn't allocate.
+                constant(expr.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            Code.Label end = code.label();
+            object(expr.left);
+            code.op(DUP, 1);
+            runtime("isTruthy", "(" + OBJECT + ")Z");
+            code.jump(expr.oper.type == TokenType.OR ? IFNE : IFEQ, end);
+            code.op(POP, -1);
+            object(expr.right);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            //minus is numeric and never gets here.
+            truth(expr.right);
+            not();
+            bool();
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if(expr.depth >= 0){
+                code.aload(local(expr.depth, expr.slot));
+            }else{
+                code.aload(INTERP);
+                token(expr.name);
+                global(expr.slot);
+                runtime("getGlobal", "(" + INTERPRETER + TOKEN + "I)" + OBJECT);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            //blocks with an environment of their own are captured by a
+            //function declared in them, which isn't compiled anyway.
+            if(!stmt.flat) throw new Unsupported();
+            for(Stmt statement : stmt.statements){
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            object(stmt.expression);
+            code.op(POP, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            Code.Label otherwise = code.label();
+            Code.Label end = code.label();
+            truth(stmt.condition);
+            code.jump(IFEQ, otherwise);
+            stmt.thenBranch.accept(this);
+            code.jump(GOTO, end);
+            code.mark(otherwise);
+            if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            code.mark(end);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            object(stmt.expression);
+            code.aload(INTERP);
+            runtime("print", "(" + OBJECT + INTERPRETER + ")V");
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if(stmt.value != null) object(stmt.value);
+            else code.op(ACONST_NULL, 1);
+            code.op(ARETURN, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if(stmt.initializer != null) object(stmt.initializer);
+            else code.op(ACONST_NULL, 1);
+            code.astore(local(stmt.slot));
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Code.Label start = code.label();
+            Code.Label end = code.label();
+            code.mark(start);
+            truth(stmt.condition);
+            code.jump(IFEQ, end);
+            stmt.body.accept(this);
+            code.aload(INTERP);
+            runtime("poll", "(" + INTERPRETER + ")V");
+            code.jump(GOTO, start);
+            code.mark(end);
+            return null;
+        }
+    }
+}
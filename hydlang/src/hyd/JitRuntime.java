@@ -0,0 +1,119 @@
+package hyd;
+
+import java.util.Arrays;
+
+//the operations compiled functions don't inline. each one matches what
+//the tree walker does for the same node, errors included.
+public final class JitRuntime {
+    private JitRuntime(){}
+
+    public static Object call(Object callee, Object[] args, Interpreter interpreter, Token paren){
+        interpreter.poll();
+        //a profiled or memoized function has to go through HydFunction.call.
+        if(callee instanceof HydFunction && interpreter.profiler == null){
+            HydFunction function = (HydFunction)callee;
+            CompiledFunction compiled = function.declaration.compiled;
+            if(compiled != null && function.memo == null && args.length == function.arity()){
+                return HydFunction.trampoline(interpreter, compiled.invoke(interpreter, args));
+            }
+        }
+        HydCallable function = CallNode.callable(callee, args.length, paren);
+        Profiler profiler = interpreter.profiler;
+        if(profiler == null || function instanceof HydFunction){
+            try{
+                return function.call(interpreter, Arrays.asList(args));
+            }catch (RuntimeError e){
+                throw CallNode.at(e, paren);
+            }
+        }
+
+        profiler.enter(function, null);
+        try{
+            return function.call(interpreter, Arrays.asList(args));
+        }catch (RuntimeError e){
+            throw CallNode.at(e, paren);
+        }finally {
+            profiler.exit();
+        }
+    }
+
+    //a call in tail position, see HydFunction.TAIL_CALL.
+    public static Object tailCall(Object callee, Object[] args, Interpreter interpreter, Token paren){
+        if(!(callee instanceof HydFunction)) return call(callee, args, interpreter, paren);
+
+        CallNode.callable(callee, args.length, paren);
+        interpreter.tailCallee = (HydFunction)callee;
+        interpreter.tailArgs = Arrays.asList(args);
+        return HydFunction.TAIL_CALL;
+    }
+
+    //on every round of a loop.
+    public static void poll(Interpreter interpreter){
+        interpreter.poll();
+    }
+
+    public static Object getGlobal(Interpreter interpreter, Token name, int slot){
+        return interpreter.globals.get(name, slot);
+    }
+
+    public static void setGlobal(Object value, Interpreter interpreter, Token name, int slot){
+        interpreter.globals.assign(name, slot, value);
+    }
+
+    public static void print(Object value, Interpreter interpreter){
+        interpreter.print(value);
+    }
+
+    public static boolean isTruthy(Object value){
+        return Interpreter.isTheTruth(value);
+    }
+
+    public static boolean isEqual(Object left, Object right){
+        return Interpreter.isEqual(left, right);
+    }
+
+    public static Object add(Object left, Object right, Token oper){
+        return BinaryNode.add(oper, left, right);
+    }
+
+    public static double negate(Object right, Token oper){
+        Interpreter.checkNumberOperand(oper, right);
+        return -(double)right;
+    }
+
+    public static double subtract(Object left, Object right, Token oper){
+        return number(left, right, oper) - (double)right;
+    }
+
+    public static double multiply(Object left, Object right, Token oper){
+        return number(left, right, oper) * (double)right;
+    }
+
+    public static double divide(Object left, Object right, Token oper){
+        return number(left, right, oper) / (double)right;
+    }
+
+    public static boolean greater(Object left, Object right, Token oper){
+        return number(left, right, oper) > (double)right;
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token oper){
+        return number(left, right, oper) >= (double)right;
+    }
+
+    public static boolean less(Object left, Object right, Token oper){
+        return number(left, right, oper) < (double)right;
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token oper){
+        return number(left, right, oper) <= (double)right;
+    }
+
+    //checks both operands and returns the left one.
+    private static double number(Object left, Object right, Token oper){
+        if(!(left instanceof Double) || !(right instanceof Double)){
+            throw new RuntimeError(oper, "Operands must be numbers.");
+        }
+        return (double)left;
+    }
+}
@@ -0,0 +1,90 @@
+package hyd;
+
+//a hyd string built by concatenation. the characters live in a builder
+//shared by every string appended from the same start, each string being
+//a prefix of it, so adding to the newest one appends in place and a loop
+//growing a string takes linear time instead of copying it every round.
+//appending to an older prefix, or prepending, copies into a new builder.
+//the text is only made into a String when something needs it: printing,
+//comparing, or code outside the interpreter.
+//
+//hyd strings are Strings or LazyStrings, the only CharSequences a script
+//can hold.
+public final class LazyString implements CharSequence {
+    //shorter results are plain Strings, copying them costs less than a builder.
+    private static final int MIN_LENGTH = 64;
+
+    //guarded by itself, tasks can append to the same string.
+    private final StringBuilder chars;
+    private final int length;
+    //the text, once something asked for it.
+    private String flat;
+
+    private LazyString(StringBuilder chars, int length){
+        this.chars = chars;
+        this.length = length;
+    }
+
+    public static Object concat(CharSequence left, CharSequence right){
+        String tail = right.toString();
+        int length = left.length() + tail.length();
+        if(length < MIN_LENGTH) return left.toString().concat(tail);
+
+        if(left instanceof LazyString){
+            LazyString prefix = (LazyString)left;
+            synchronized (prefix.chars){
+                if(prefix.chars.length() == prefix.length){
+                    prefix.chars.append(tail);
+                    return new LazyString(prefix.chars, length);
+                }
+            }
+        }
+        StringBuilder chars = new StringBuilder(length * 2);
+        chars.append(left.toString()).append(tail);
+        return new LazyString(chars, length);
+    }
+
+    //the value with lazy strings made into Strings, for equality and for
+    //handing values outside the interpreter.
+    public static Object flat(Object value){
+        return value instanceof LazyString ? value.toString() : value;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString(){
+        String text = flat;
+        if(text == null){
+            synchronized (chars){
+                text = chars.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+
+    //equal to strings with the same text, lazy or not, so memo keys match.
+    @Override
+    public boolean equals(Object other){
+        return other instanceof CharSequence && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode(){
+        return toString().hashCode();
+    }
+}
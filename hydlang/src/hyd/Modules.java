@@ -0,0 +1,142 @@
+package hyd;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+//the files brought in by import statements. every module a program needs
+//is scanned, parsed and resolved up front on a thread pool, and the
+//resolved trees are kept by canonical path for every interpreter of the
+//runtime, until the file is modified. they are resolved against the
+//runtime's symbol table, so each runtime keeps its own.
+final class Modules {
+    private final Globals symbols;
+    private final ConcurrentHashMap<String, Module> parsed = new ConcurrentHashMap<>();
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "hyd-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static class Module{
+        final Path path;
+        final long modified;
+        final List<Stmt> statements;
+
+        Module(Path path, long modified, List<Stmt> statements){
+            this.path = path;
+            this.modified = modified;
+            this.statements = statements;
+        }
+    }
+
+    //a module being loaded, along with the import that asked for it.
+    private static class Pending{
+        final Token path;
+        final Future<Module> module;
+
+        Pending(Token path, Future<Module> module){
+            this.path = path;
+            this.module = module;
+        }
+    }
+
+    Modules(Globals symbols){
+        this.symbols = symbols;
+    }
+
+    //loads the modules imported by statements and everything those import
+    //in turn, returning their trees by the canonical path the parser gave
+    //each import. script is the canonical path of the file statements
+    //came from, or null, so a module importing it back doesn't load it. modules that can't be read or have errors are reported
+    //to errors. imports are only allowed at the top level, so that's the
+    //only place to look for them.
+    Map<String, List<Stmt>> load(List<Stmt> statements, String script, ErrorReporter errors, boolean cache){
+        Map<String, List<Stmt>> modules = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        if(script != null) seen.add(script);
+        Queue<Pending> pending = new ArrayDeque<>();
+        submit(statements, seen, pending, errors, cache);
+
+        //every module of one level is parsed at the same time, its imports
+        //are submitted as soon as it's done.
+        while(!pending.isEmpty()){
+            Pending next = pending.poll();
+            try{
+                Module module = next.module.get();
+                if(module == null) continue;
+                modules.put(module.path.toString(), module.statements);
+                submit(module.statements, seen, pending, errors, cache);
+            }catch (ExecutionException e){
+                errors.error(next.path, " can't read module: " + e.getCause().getMessage());
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                errors.error(next.path, " interrupted while loading the module.");
+                break;
+            }
+        }
+        return modules;
+    }
+
+    private void submit(List<Stmt> statements, Set<String> seen, Queue<Pending> pending,
+                               final ErrorReporter errors, final boolean cache){
+        for(Stmt stmt : statements){
+            if(!(stmt instanceof Stmt.Import)) continue;
+            Stmt.Import imported = (Stmt.Import)stmt;
+
+            final Path path;
+            try{
+                path = Paths.get(imported.file);
+            }catch (InvalidPathException e){
+                errors.error(imported.path, " can't find module.");
+                continue;
+            }
+            if(!Files.isRegularFile(path)){
+                errors.error(imported.path, " can't find module.");
+                continue;
+            }
+            if(!seen.add(imported.file)) continue;
+
+            pending.add(new Pending(imported.path, pool.submit(new Callable<Module>() {
+                @Override
+                public Module call() throws IOException {
+                    return load(path, errors.module(path), cache);
+                }
+            })));
+        }
+    }
+
+    //the cached module unless the file changed since, null when it has errors.
+    private Module load(Path path, ErrorReporter errors, boolean cache) throws IOException{
+        String file = path.toString();
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        Module module = parsed.get(file);
+        if(module != null && module.modified == modified) return module;
+
+        List<Stmt> statements = Hyd.compile(path, errors, cache, symbols);
+        if(statements == null) return null;
+        module = new Module(path, modified, statements);
+        parsed.put(file, module);
+        return module;
+    }
+}
@@ -0,0 +1,270 @@
+package hyd;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//java static methods to install as hyd natives, see HydContext.install.
+//every method is bound once into a MethodHandle that takes and returns
+//hyd values, so a call is an invokeExact with a conversion per argument:
+//
+//  numbers, double or any other primitive number, come from and go back
+//  to hyd numbers. boolean maps to booleans, String and CharSequence to
+//  strings, char results become strings, and Object takes any value.
+//  a void method returns nil.
+//
+//a method with any other parameter or return type can't be a native.
+public final class Natives {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle TO_DOUBLE = adapter("toDouble", double.class, Object.class);
+    private static final MethodHandle TO_BOOLEAN = adapter("toBoolean", boolean.class, Object.class);
+    private static final MethodHandle TO_STRING = adapter("toText", String.class, Object.class);
+    private static final MethodHandle TO_OBJECT = adapter("flat", Object.class, Object.class);
+    private static final MethodHandle FROM_CHAR = adapter("fromChar", Object.class, char.class);
+    private static final MethodHandle FROM_OBJECT = adapter("fromJava", Object.class, Object.class);
+
+    final Map<String, HydCallable> functions = new LinkedHashMap<>();
+
+    //the methods of type marked with @HydNative.
+    public Natives add(Class<?> type){
+        for(Method method : type.getMethods()){
+            HydNative annotation = method.getAnnotation(HydNative.class);
+            if(annotation == null) continue;
+            if(!Modifier.isStatic(method.getModifiers()) || !adaptable(method)){
+                throw new IllegalArgumentException("Can't make a native of " + method);
+            }
+            add(annotation.value().isEmpty() ? method.getName() : annotation.value(), method);
+        }
+        return this;
+    }
+
+    //every public static method of type that can be a native, like the
+    //whole of java.lang.Math. of overloads, the one taking the most hyd
+    //types as they are wins, doubles over ints say.
+    public Natives addAll(Class<?> type){
+        Map<String, Method> best = new LinkedHashMap<>();
+        List<Method> methods = new ArrayList<>(Arrays.asList(type.getMethods()));
+        //getMethods() has no order, this keeps the choice between equal
+        //overloads the same from run to run.
+        Collections.sort(methods, new Comparator<Method>() {
+            @Override
+            public int compare(Method a, Method b) {
+                return a.toString().compareTo(b.toString());
+            }
+        });
+        for(Method method : methods){
+            if(!Modifier.isStatic(method.getModifiers()) || !adaptable(method)) continue;
+            Method other = best.get(method.getName());
+            if(other == null || exact(method) > exact(other)) best.put(method.getName(), method);
+        }
+        for(Map.Entry<String, Method> entry : best.entrySet()) add(entry.getKey(), entry.getValue());
+        return this;
+    }
+
+    public Natives add(String name, Method method){
+        functions.put(name, new Native(name, bind(method), method.getParameterCount()));
+        return this;
+    }
+
+    private static boolean adaptable(Method method){
+        for(Class<?> type : method.getParameterTypes()){
+            if(parameter(type) == null) return false;
+        }
+        Class<?> result = method.getReturnType();
+        return result == void.class || result == char.class || result.isPrimitive() && parameter(result) != null ||
+                !result.isPrimitive();
+    }
+
+    //how many parameters take hyd values without narrowing.
+    private static int exact(Method method){
+        int count = 0;
+        for(Class<?> type : method.getParameterTypes()){
+            if(type == double.class || type == boolean.class || type == String.class || type == Object.class) count++;
+        }
+        return count;
+    }
+
+    //converts a hyd value to the parameter type, null when it can't.
+    private static MethodHandle parameter(Class<?> type){
+        if(type == double.class) return TO_DOUBLE;
+        if(type == boolean.class) return TO_BOOLEAN;
+        if(type == String.class || type == CharSequence.class) return TO_STRING.asType(MethodType.methodType(type, Object.class));
+        if(type == Object.class) return TO_OBJECT;
+        if(type.isPrimitive() && type != char.class && type != void.class){
+            return MethodHandles.explicitCastArguments(TO_DOUBLE, MethodType.methodType(type, Object.class));
+        }
+        return null;
+    }
+
+    //the method as (Object...)Object, taking and returning hyd values.
+    private static MethodHandle bind(Method method){
+        MethodHandle handle;
+        try{
+            handle = LOOKUP.unreflect(method);
+        }catch (IllegalAccessException e){
+            throw new IllegalArgumentException("Can't make a native of " + method, e);
+        }
+        Class<?>[] types = method.getParameterTypes();
+        MethodHandle[] adapters = new MethodHandle[types.length];
+        for(int i = 0;i < types.length;i++) adapters[i] = parameter(types[i]);
+        handle = MethodHandles.filterArguments(handle, 0, adapters);
+
+        Class<?> result = method.getReturnType();
+        if(result == char.class){
+            handle = MethodHandles.filterReturnValue(handle, FROM_CHAR);
+        }else if(result.isPrimitive() && result != void.class && result != boolean.class){
+            handle = MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(double.class));
+        }else if(!result.isPrimitive()){
+            handle = MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)), FROM_OBJECT);
+        }
+        //boxes the primitives, and makes void return null.
+        return handle.asType(MethodType.genericMethodType(types.length));
+    }
+
+    private static MethodHandle adapter(String name, Class<?> result, Class<?> parameter){
+        try{
+            return LOOKUP.findStatic(Natives.class, name, MethodType.methodType(result, parameter));
+        }catch (ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static double toDouble(Object value){
+        if(value instanceof Double) return (double)value;
+        throw new RuntimeError(null, "Expected a number but got " + describe(value) + ".");
+    }
+
+    private static boolean toBoolean(Object value){
+        if(value instanceof Boolean) return (boolean)value;
+        throw new RuntimeError(null, "Expected a boolean but got " + describe(value) + ".");
+    }
+
+    private static String toText(Object value){
+        if(value instanceof CharSequence) return value.toString();
+        throw new RuntimeError(null, "Expected a string but got " + describe(value) + ".");
+    }
+
+    private static Object flat(Object value){
+        return LazyString.flat(value);
+    }
+
+    private static Object fromChar(char value){
+        return String.valueOf(value);
+    }
+
+    private static Object fromJava(Object value){
+        if(value instanceof Number) return ((Number)value).doubleValue();
+        if(value instanceof Character || value instanceof CharSequence) return value.toString();
+        return value;
+    }
+
+    private static String describe(Object value){
+        if(value == null) return "nil";
+        if(value instanceof Double) return "a number";
+        if(value instanceof Boolean) return "a boolean";
+        if(value instanceof CharSequence) return "a string";
+        if(value instanceof HydCallable) return "a function";
+        return value.toString();
+    }
+
+    //up to four arguments the handle is called without an array.
+    private static final class Native implements HydCallable{
+        private final String name;
+        private final MethodHandle handle;
+        private final int arity;
+
+        Native(String name, MethodHandle handle, int arity){
+            this.name = name;
+            this.handle = handle;
+            this.arity = arity;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            switch (arity){
+                case 0: return call0(interpreter);
+                case 1: return call1(interpreter, args.get(0));
+                case 2: return call2(interpreter, args.get(0), args.get(1));
+                case 3: return call3(interpreter, args.get(0), args.get(1), args.get(2));
+                case 4: return call4(interpreter, args.get(0), args.get(1), args.get(2), args.get(3));
+                default:
+                    try{
+                        return handle.invokeWithArguments(args);
+                    }catch (Throwable e){
+                        throw failure(e);
+                    }
+            }
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            try{
+                return (Object)handle.invokeExact();
+            }catch (Throwable e){
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a) {
+            try{
+                return (Object)handle.invokeExact(a);
+            }catch (Throwable e){
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a, Object b) {
+            try{
+                return (Object)handle.invokeExact(a, b);
+            }catch (Throwable e){
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+            try{
+                return (Object)handle.invokeExact(a, b, c);
+            }catch (Throwable e){
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+            try{
+                return (Object)handle.invokeExact(a, b, c, d);
+            }catch (Throwable e){
+                throw failure(e);
+            }
+        }
+
+        //bad arguments are already runtime errors, java exceptions become one.
+        private RuntimeException failure(Throwable e){
+            if(e instanceof Error) throw (Error)e;
+            if(e instanceof RuntimeError) return (RuntimeError)e;
+            return new RuntimeError(null, name + ": " + e);
+        }
+
+        @Override
+        public String toString(){
+            return "<native function " + name + ">";
+        }
+    }
+}
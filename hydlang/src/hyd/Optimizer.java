@@ -0,0 +1,266 @@
+package hyd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//runs over the resolved tree before it's executed. folds operators whose
+//operands are literals, drops branches and loops whose condition is a
+//literal, and removes block scopes that declare nothing, like the one
+//Parser.forStatement wraps around a loop body and its increment. such a
+//block is flat, it has no environment, so taking it away moves nothing.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>{
+
+    List<Stmt> optimize(List<Stmt> statements){
+        List<Stmt> optimized = new ArrayList<>();
+        for(Stmt stmt : statements){
+            Stmt result = optimize(stmt);
+            if(result == null) continue;
+
+            //a block that declares nothing adds a scope for no reason.
+            if(result instanceof Stmt.Block && ((Stmt.Block)result).locals == 0){
+                optimized.addAll(((Stmt.Block)result).statements);
+            }else{
+                optimized.add(result);
+            }
+        }
+        return optimized;
+    }
+
+    //null when the statement does nothing.
+    private Stmt optimize(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    //for the places that need a statement, even one that does nothing.
+    private Stmt body(Stmt stmt){
+        return unwrap(optimize(stmt));
+    }
+
+    private Stmt unwrap(Stmt result){
+        if(result == null) return block(new ArrayList<Stmt>(), 0, true);
+        if(result instanceof Stmt.Block){
+            Stmt.Block block = (Stmt.Block)result;
+            if(block.locals == 0 && block.statements.size() == 1) return block.statements.get(0);
+        }
+        return result;
+    }
+
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+
+    private static Stmt.Block block(List<Stmt> statements, int locals, boolean flat){
+        Stmt.Block block = new Stmt.Block(statements);
+        block.locals = locals;
+        block.flat = flat;
+        return block;
+    }
+
+    private static Expr literal(Object value){
+        Expr literal = new Expr.Literal(value);
+        literal.numeric = value instanceof Double;
+        return literal;
+    }
+
+    private static boolean isLiteral(Expr expr){
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object value(Expr expr){
+        return ((Expr.Literal)expr).value;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if(value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.numeric = expr.numeric;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(isLiteral(left) && isLiteral(right)){
+            Object folded = fold(expr.oper, value(left), value(right));
+            if(folded != NOT_FOLDED) return literal(folded);
+        }
+
+        if(left == expr.left && right == expr.right) return expr;
+        Expr.Binary binary = new Expr.Binary(left, expr.oper, right);
+        binary.numeric = expr.numeric;
+        return binary;
+    }
+
+    private static final Object NOT_FOLDED = new Object();
+
+    //operands of the wrong type are left for the interpreter to report.
+    private static Object fold(Token oper, Object left, Object right){
+        switch (oper.type){
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case NOT_EQUAL: return !Interpreter.isEqual(left, right);
+            case PLUS:
+                if(left instanceof String && right instanceof String) return (String)left + (String)right;
+                break;
+        }
+        if(!(left instanceof Double) || !(right instanceof Double)) return NOT_FOLDED;
+
+        double a = (double)left, b = (double)right;
+        switch (oper.type){
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return a / b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+        }
+        return NOT_FOLDED;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+        List<Expr> args = new ArrayList<>();
+        for(Expr arg : expr.arguments){
+            Expr optimized = optimize(arg);
+            changed |= optimized != arg;
+            args.add(optimized);
+        }
+        if(!changed) return expr;
+        Expr.Call call = new Expr.Call(callee, expr.paren, args);
+        call.tail = expr.tail;
+        return call;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        //only the parser needs the parentheses.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(isLiteral(left)){
+            boolean truth = Interpreter.isTheTruth(value(left));
+            boolean shortCircuits = expr.oper.type == TokenType.OR ? truth : !truth;
+            return shortCircuits ? left : right;
+        }
+
+        if(left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.oper, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if(isLiteral(right)){
+            Object value = value(right);
+            if(expr.oper.type == TokenType.NOT) return literal(!Interpreter.isTheTruth(value));
+            if(value instanceof Double) return literal(-(double)value);
+        }
+
+        if(right == expr.right) return expr;
+        Expr.Unary unary = new Expr.Unary(expr.oper, right);
+        unary.numeric = expr.numeric;
+        return unary;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if(statements.isEmpty() && stmt.locals == 0) return null;
+        return block(statements, stmt.locals, stmt.flat);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(isLiteral(expression)) return null;
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+        function.slot = stmt.slot;
+        function.locals = stmt.locals;
+        function.pure = stmt.pure;
+        return function;
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if(isLiteral(condition)){
+            if(Interpreter.isTheTruth(value(condition))) return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = body(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if(elseBranch != null) elseBranch = unwrap(elseBranch);
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if(value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        if(initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(isLiteral(condition) && !Interpreter.isTheTruth(value(condition))) return null;
+        return new Stmt.While(condition, body(stmt.body));
+    }
+}
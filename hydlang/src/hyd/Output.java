@@ -0,0 +1,19 @@
+package hyd;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+//where print goes when nothing else was set. System.out flushes on every
+//line, which is most of the time a script printing in a loop takes, so it
+//is put behind a large buffer that the engines flush when a program ends
+//or fails, and when the script calls flush().
+public final class Output {
+    private static final int BUFFER = 1 << 16;
+
+    private Output(){}
+
+    public static PrintWriter standard(){
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER), false);
+    }
+}
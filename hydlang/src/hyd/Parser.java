@@ -1,5 +1,9 @@
 package hyd;
 
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -7,11 +11,23 @@ import java.util.List;
 public class Parser {
     private static class ParseError extends RuntimeException{ }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    //tokens are pulled from the scanner as the parser needs them, the
+    //grammar never looks further ahead than the next one.
+    private final Scanner scanner;
+    //imports are relative to it.
+    private final Path dir;
+    private Token next;
+    private Token previous;
 
-    Parser(List<Token> tokens){
-        this.tokens = tokens;
+    Parser(Scanner scanner, Path dir){
+        this.scanner = scanner;
+        this.dir = dir;
+        this.next = scanner.next();
+    }
+
+    //imports are relative to the working directory.
+    Parser(Scanner scanner){
+        this(scanner, Paths.get(""));
     }
 
     List<Stmt> parse(){
@@ -26,6 +42,7 @@ public class Parser {
         try{
             if(match(TokenType.FUN)) return function("function");
             if(match(TokenType.VAR)) return varDeclaration();
+            if(match(TokenType.IMPORT)) return importDeclaration();
             return statement();
         }catch(ParseError pe){
             synchronize();
@@ -33,6 +50,28 @@ public class Parser {
         }
     }
 
+    private Stmt importDeclaration(){
+        Token keyword = previous();
+        Token path = consume(TokenType.STRING, "Expected module path after 'import'.");
+        consume(TokenType.SEMI_COLON, "Expected ';' after module path.");
+        return new Stmt.Import(keyword, path, file(dir, path));
+    }
+
+    //the canonical path of an imported file. one that can't be found is
+    //left for the loader to report, as it's written when it isn't a path.
+    static String file(Path dir, Token path){
+        try{
+            Path file = dir.resolve((String)path.literal);
+            try{
+                return file.toRealPath().toString();
+            }catch (IOException e){
+                return file.toAbsolutePath().normalize().toString();
+            }
+        }catch (InvalidPathException e){
+            return (String)path.literal;
+        }
+    }
+
     private Stmt.Function function(String type){
         Token identity = consume(TokenType.IDENTIFIER, "Expected " + type + "name.");
         consume(TokenType.LEFT_PAREN, "Expected '(' after " + type + "name.");
@@ -293,7 +332,7 @@ public class Parser {
     private Expr finishCall(Expr callee){
         List<Expr> args = new ArrayList<>();
 
-        if(!match(TokenType.RIGHT_PAREN)){
+        if(!check(TokenType.RIGHT_PAREN)){
             do{
                 if(args.size() >= 255){
                     error(peek(), "No. of args must be <= 255.");
@@ -346,7 +385,10 @@ public class Parser {
     }
 
     private Token advance(){
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()){
+            previous = next;
+            next = scanner.next();
+        }
         return previous();
     }
 
@@ -355,11 +397,11 @@ public class Parser {
     }
 
     private Token peek(){
-        return tokens.get(current);
+        return next;
     }
 
     private Token previous(){
-        return tokens.get(current-1);
+        return previous;
     }
 
     //error handling:
@@ -369,7 +411,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String msg){
-        Hyd.error(token, msg);
+        scanner.errors.error(token, msg);
         return new ParseError();
     }
     private void synchronize(){
@@ -384,6 +426,7 @@ public class Parser {
                 case CLASS:
                 case FUN:
                 case VAR:
+                case IMPORT:
                 case FOR:
                 case IF:
                 case WHILE:
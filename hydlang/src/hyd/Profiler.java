@@ -0,0 +1,175 @@
+package hyd;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//records, for every function called while --profile is on, how often it
+//ran, its time with and without its callees and roughly how much it
+//allocated. calls are kept as a tree, one node per distinct stack, which
+//the collapsed stack output is written from.
+class Profiler {
+    private static class Function{
+        final String name;
+        long calls;
+        long total;
+        long self;
+        long allocated;
+        //activations on the stack, a recursive call only adds to total
+        //once the outermost one returns.
+        int active;
+
+        Function(String name){
+            this.name = name;
+        }
+    }
+
+    private static class Node{
+        final Function function;
+        final Map<Function, Node> children = new HashMap<>();
+        long self;
+
+        Node(Function function){
+            this.function = function;
+        }
+    }
+
+    //an activation of a node. frames are reused as the stack grows and shrinks.
+    private static class Frame{
+        Node node;
+        long start;
+        long startAllocated;
+        long children;
+        long childrenAllocated;
+    }
+
+    private final Map<Object, Function> functions = new IdentityHashMap<>();
+    private final Function script = new Function("<script>");
+    private final Node root = new Node(script);
+    private final List<Frame> frames = new ArrayList<>();
+    private int depth = 0;
+    private final com.sun.management.ThreadMXBean allocations;
+    private final long thread = Thread.currentThread().getId();
+
+    Profiler(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported()){
+            allocations = (com.sun.management.ThreadMXBean)threads;
+        }else{
+            allocations = null;
+        }
+        script.calls = 1;
+        push(root);
+    }
+
+    //key identifies the function: its declaration, or the native itself.
+    void enter(Object key, Token name){
+        Function function = functions.get(key);
+        if(function == null){
+            if(key instanceof Stmt.Function){
+                Token declared = ((Stmt.Function)key).name;
+                function = new Function(declared.lexeme() + ":" + declared.line);
+            }else{
+                function = new Function(name != null ? name.lexeme() : key.toString());
+            }
+            functions.put(key, function);
+        }
+        function.calls++;
+        function.active++;
+
+        Node parent = frames.get(depth-1).node;
+        Node node = parent.children.get(function);
+        if(node == null){
+            node = new Node(function);
+            parent.children.put(function, node);
+        }
+        push(node);
+    }
+
+    void exit(){
+        Frame frame = frames.get(--depth);
+        long elapsed = System.nanoTime() - frame.start;
+        long allocated = allocated() - frame.startAllocated;
+        Function function = frame.node.function;
+
+        function.self += elapsed - frame.children;
+        function.allocated += allocated - frame.childrenAllocated;
+        frame.node.self += elapsed - frame.children;
+        if(--function.active == 0) function.total += elapsed;
+
+        Frame parent = frames.get(depth-1);
+        parent.children += elapsed;
+        parent.childrenAllocated += allocated;
+    }
+
+    private void push(Node node){
+        if(depth == frames.size()) frames.add(new Frame());
+        Frame frame = frames.get(depth++);
+        frame.node = node;
+        frame.children = 0;
+        frame.childrenAllocated = 0;
+        frame.startAllocated = allocated();
+        frame.start = System.nanoTime();
+    }
+
+    private long allocated(){
+        return allocations == null ? 0 : allocations.getThreadAllocatedBytes(thread);
+    }
+
+    //closes the script's own frame, after that the numbers are final.
+    void finish(){
+        while(depth > 1) exit();
+        if(depth == 1){
+            Frame frame = frames.get(--depth);
+            long elapsed = System.nanoTime() - frame.start;
+            script.total = elapsed;
+            script.self = elapsed - frame.children;
+            script.allocated = allocated() - frame.startAllocated - frame.childrenAllocated;
+            root.self = script.self;
+        }
+    }
+
+    //functions sorted by self time.
+    void report(PrintStream out){
+        List<Function> sorted = new ArrayList<>(functions.values());
+        sorted.add(script);
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+
+        out.println();
+        out.printf("%-24s %10s %12s %12s %7s %12s%n", "function", "calls", "total ms", "self ms", "self %",
+                allocations != null ? "alloc KB" : "alloc");
+        for(Function function : sorted){
+            out.printf("%-24s %10d %12.3f %12.3f %6.1f%% %12s%n", function.name, function.calls,
+                    function.total / 1e6, function.self / 1e6,
+                    script.total == 0 ? 0.0 : 100.0 * function.self / script.total,
+                    allocations != null ? String.valueOf(function.allocated / 1024) : "n/a");
+        }
+    }
+
+    //one line per distinct stack: frames separated by ';', then the
+    //self time in microseconds, which is what flame graph tools read.
+    void writeCollapsed(Path path) throws IOException{
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))){
+            writeCollapsed(out, root, root.function.name);
+        }
+    }
+
+    private void writeCollapsed(PrintWriter out, Node node, String stack){
+        long micros = node.self / 1000;
+        if(micros > 0) out.println(stack + " " + micros);
+        for(Node child : node.children.values()){
+            writeCollapsed(out, child, stack + ";" + child.function.name);
+        }
+    }
+}
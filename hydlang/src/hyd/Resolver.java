@@ -1,27 +1,93 @@
 package hyd;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter errors;
+    private final Globals symbols;
+    private final Stack<Scope> scopes = new Stack<>();
+    //blocks that need an environment of their own, see Captures.
+    private Set<Stmt.Block> captured;
     private FunctionType curFunction = FunctionType.NONE;
-
-    Resolver(Interpreter interpreter){
-        this.interpreter = interpreter;
+    //globals have no scope to live in, they are only tracked for findPure().
+    private final Map<Symbol, Local> globals = new IdentityHashMap<>();
+    private final List<Body> bodies = new ArrayList<>();
+    private Body body = null;
+
+    Resolver(ErrorReporter errors, Globals symbols){
+        this.errors = errors;
+        this.symbols = symbols;
     }
 
     enum FunctionType{
         NONE, FUNCTION
     }
 
+    //a local declared in some scope, along with the slot it occupies in
+    //the frame that scope's locals live in.
+    private static class Local{
+        final int slot;
+        boolean defined = false;
+        int declarations = 0;
+        boolean assigned = false;
+        //set when the name is declared by a fun statement.
+        Stmt.Function function;
+
+        Local(int slot){
+            this.slot = slot;
+        }
+    }
+
+    //a function body or block. functions and captured blocks get a frame,
+    //an environment of their own at runtime. the locals of any other block
+    //take the next free slots of the frame around it, and give them back
+    //when it ends, so blocks side by side share slots.
+    private static class Scope{
+        final Map<Symbol, Local> locals = new IdentityHashMap<>();
+        //this scope, or the one whose frame it uses. null for a block at
+        //the top level that declares nothing.
+        final Scope frame;
+        //the frame's first free slot when this scope began.
+        final int start;
+        //for frames, the next free slot and the most used at once.
+        int next = 0;
+        int size = 0;
+
+        Scope(Scope enclosing, boolean flat){
+            frame = flat ? enclosing : this;
+            start = frame == null ? 0 : frame.next;
+        }
+    }
+
+    //what findPure() needs to know about a function body.
+    private static class Body{
+        final Stmt.Function declaration;
+        //index of the scope holding the parameters.
+        final int scope;
+        boolean impure = false;
+        final List<Local> reads = new ArrayList<>();
+        final List<Local> calls = new ArrayList<>();
+
+        Body(Stmt.Function declaration, int scope){
+            this.declaration = declaration;
+            this.scope = scope;
+        }
+    }
+
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        int scope = indexOf(expr.name);
+        expr.depth = depthOf(scope);
+        expr.slot = scope >= 0 ? scopes.get(scope).locals.get(expr.name.symbol).slot : symbols.slot(expr.name.symbol);
+
+        binding(expr.name).assigned = true;
+        if(body != null && !owns(scope)) body.impure = true;
         return null;
     }
 
@@ -29,6 +95,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+
+        //numeric expressions either produce a double or fail, so the
+        //interpreter can evaluate them without boxing.
+        switch (expr.oper.type){
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                expr.numeric = expr.left.numeric && expr.right.numeric;
+                break;
+        }
         return null;
     }
 
@@ -38,17 +117,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         for(Expr arg : expr.arguments){
             resolve(arg);
         }
+
+        if(body != null){
+            if(expr.callee instanceof Expr.Variable){
+                body.calls.add(binding(((Expr.Variable)expr.callee).name));
+            }else{
+                body.impure = true;
+            }
+        }
         return null;
     }
 
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
+        expr.numeric = expr.expression.numeric;
         return null;
     }
 
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
+        expr.numeric = expr.value instanceof Double;
         return null;
     }
 
@@ -62,36 +151,132 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.numeric = expr.oper.type == TokenType.MINUS;
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme)== Boolean.FALSE){
-            Hyd.error(expr.name, "Can't read local variable during initialization.");
+        if(!scopes.isEmpty() && scopes.peek().locals.containsKey(expr.name.symbol)
+                && !scopes.peek().locals.get(expr.name.symbol).defined){
+            errors.error(expr.name, "Can't read local variable during initialization.");
         }
-        resolveLocal(expr, expr.name);
+        int scope = indexOf(expr.name);
+        expr.depth = depthOf(scope);
+        expr.slot = scope >= 0 ? scopes.get(scope).locals.get(expr.name.symbol).slot : symbols.slot(expr.name.symbol);
+
+        if(body != null && !owns(scope)) body.reads.add(binding(expr.name));
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name){
+    //index of the scope declaring a name, or -1 when it isn't declared
+    //locally and must be a global.
+    private int indexOf(Token name){
         for(int i = scopes.size()-1;i >= 0;i--){
-            if(scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr, scopes.size()-1-i);
-                return;
+            if(scopes.get(i).locals.containsKey(name.symbol)){
+                return i;
             }
         }
+        return -1;
+    }
+
+    //number of environments between the use of a name and the frame it
+    //lives in, or -1 for globals.
+    private int depthOf(int scope){
+        if(scope < 0) return -1;
+        int depth = 0;
+        for(int i = scope+1;i < scopes.size();i++){
+            if(scopes.get(i).frame == scopes.get(i)) depth++;
+        }
+        return depth;
+    }
+
+    //whether a name declared in the given scope belongs to the function
+    //being resolved, rather than to an enclosing one or the globals.
+    private boolean owns(int scope){
+        return scope >= body.scope;
+    }
+
+    private Local binding(Token name){
+        for(int i = scopes.size()-1;i >= 0;i--){
+            Local local = scopes.get(i).locals.get(name.symbol);
+            if(local != null) return local;
+        }
+        return global(name.symbol);
+    }
+
+    private Local global(Symbol name){
+        Local global = globals.get(name);
+        if(global == null){
+            global = new Local(-1);
+            globals.put(name, global);
+        }
+        return global;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
-        resolve(stmt.statements);
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek().frame;
+        boolean flat = !captured.contains(stmt) && (enclosing != null || !declares(stmt));
+        Scope scope = beginScope(flat);
+        resolveAll(stmt.statements);
         endScope();
+
+        stmt.flat = flat;
+        stmt.locals = flat ? scope.locals.size() : scope.size;
         return null;
     }
 
+    private static boolean declares(Stmt.Block block){
+        for(Stmt statement : block.statements){
+            if(statement instanceof Stmt.Var || statement instanceof Stmt.Function) return true;
+        }
+        return false;
+    }
+
     void resolve(List<Stmt> statements){
+        captured = Captures.find(statements);
+        resolveAll(statements);
+        findPure();
+    }
+
+    //a function is pure when it prints nothing, assigns nothing outside
+    //itself, declares no closures, and whatever it reads or calls from
+    //outside is bound once and never reassigned, the calls going to pure
+    //functions only. everything starts out pure and functions get struck
+    //off until nothing changes, so recursive functions can stay pure.
+    private void findPure(){
+        for(Body body : bodies){
+            boolean pure = !body.impure;
+            for(Local local : body.reads){
+                if(!isFixed(local)) pure = false;
+            }
+            body.declaration.pure = pure;
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(Body body : bodies){
+                if(!body.declaration.pure) continue;
+                for(Local callee : body.calls){
+                    if(callee.function == null || !isFixed(callee) || !callee.function.pure){
+                        body.declaration.pure = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        bodies.clear();
+    }
+
+    //natives count as unbound, clock() isn't pure.
+    private static boolean isFixed(Local local){
+        return local.declarations == 1 && !local.assigned;
+    }
+
+    private void resolveAll(List<Stmt> statements){
         for(Stmt stmt : statements){
             resolve(stmt);
         }
@@ -105,12 +290,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
 
-    private void beginScope(){
-        scopes.push(new HashMap<String, Boolean>());
+    private Scope beginScope(boolean flat){
+        return scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek().frame, flat));
     }
 
     private void endScope(){
-        scopes.pop();
+        Scope scope = scopes.pop();
+        if(scope.frame != scope && scope.frame != null) scope.frame.next = scope.start;
     }
 
     @Override
@@ -121,8 +307,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
+        binding(stmt.name).function = stmt;
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
@@ -130,14 +317,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private void resolveFunction(Stmt.Function function, FunctionType fType){
         FunctionType enclosing = curFunction;
         curFunction = fType;
-        beginScope();
+        Body enclosingBody = body;
+        if(enclosingBody != null) enclosingBody.impure = true;
+        body = new Body(function, scopes.size());
+        bodies.add(body);
+        Scope scope = beginScope(false);
         for(Token param : function.params){
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolveAll(function.body);
         endScope();
+        function.locals = scope.size;
         curFunction = enclosing;
+        body = enclosingBody;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if(!scopes.isEmpty()){
+            errors.error(stmt.keyword, "Can only import at the top level.");
+        }
+        return null;
     }
 
     @Override
@@ -151,24 +352,31 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
+        if(body != null) body.impure = true;
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if(curFunction == FunctionType.NONE){
-            Hyd.error(stmt.keyword, "Can't run Top-level code.");
+            errors.error(stmt.keyword, "Can't run Top-level code.");
         }
 
         if(stmt.value != null){
             resolve(stmt.value);
+
+            //a call whose value is returned as is can run in place of
+            //the function making it.
+            Expr value = stmt.value;
+            while(value instanceof Expr.Grouping) value = ((Expr.Grouping)value).expression;
+            if(value instanceof Expr.Call) ((Expr.Call)value).tail = true;
         }
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if(stmt.initializer != null){
             resolve(stmt.initializer);
         }
@@ -177,20 +385,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+    //returns the slot the name is defined in at runtime.
+    private int declare(Token name){
+        if(scopes.isEmpty()){
+            global(name.symbol).declarations++;
+            return symbols.slot(name.symbol);
+        }
+        Scope scope = scopes.peek();
 
-        if(scope.containsKey(name.lexeme)){
-            Hyd.error(name, "Variable with same name already exists in scope.");
+        if(scope.locals.containsKey(name.symbol)){
+            errors.error(name, "Variable with same name already exists in scope.");
+            return scope.locals.get(name.symbol).slot;
         }
 
-        scope.put(name.lexeme, false);
+        Scope frame = scope.frame;
+        Local local = new Local(frame.next++);
+        frame.size = Math.max(frame.size, frame.next);
+        local.declarations++;
+        scope.locals.put(name.symbol, local);
+        return local.slot;
     }
 
     private void define(Token name){
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.symbol).defined = true;
     }
 
     @Override
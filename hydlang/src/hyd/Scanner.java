@@ -1,49 +1,172 @@
 package hyd;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 
+//reads the source a buffer at a time and hands out one token per call to
+//next(), so only the text of the token being scanned has to be kept.
 public class Scanner {
-    private final String source;
-    private final ArrayList<Token> tokens = new ArrayList<>();
+    private final Reader reader;
+    //shared with the parser reading this scanner's tokens.
+    final ErrorReporter errors;
+    //where its names are interned, and the Resolver looks up globals.
+    final Globals symbols;
+    private char[] buffer = new char[8192];
+    //buffer[start, current) is the token being scanned, buffer[current, limit) is read ahead.
+    private int limit = 0;
+    private boolean drained = false;
+    private Token token;
     private int start = 0;
     private int current =0;
     private int line = 1;
-
-    private static final Map<String, TokenType> reserved = new HashMap<>();
+    //every distinct identifier seen so far, so each name is only turned
+    //into a string and looked up in the symbol table once. open addressing
+    //on the String hash.
+    private Symbol[] names = new Symbol[256];
+    private int nameCount = 0;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    //the text of every token type that only has one spelling, they share it.
+    static final String[] spelling = new String[TokenType.values().length];
     static {
-        reserved.put("and",     TokenType.AND);
-        reserved.put("class",   TokenType.CLASS);
-        reserved.put("else",    TokenType.ELSE);
-        reserved.put("if",      TokenType.IF);
-        reserved.put("false",   TokenType.FALSE);
-        reserved.put("or",      TokenType.OR);
-        reserved.put("fun",     TokenType.FUN);
-        reserved.put("for",     TokenType.FOR);
-        reserved.put("nil",     TokenType.NIL);
-        reserved.put("print",   TokenType.PRINT);
-        reserved.put("return",  TokenType.RETURN);
-        reserved.put("super",   TokenType.SUPER);
-        reserved.put("this",    TokenType.THIS);
-        reserved.put("true",    TokenType.TRUE);
-        reserved.put("var",     TokenType.VAR);
-        reserved.put("while",   TokenType.WHILE);
+        spelling[TokenType.LEFT_PAREN.ordinal()] = "(";
+        spelling[TokenType.RIGHT_PAREN.ordinal()] = ")";
+        spelling[TokenType.LEFT_BRACE.ordinal()] = "{";
+        spelling[TokenType.RIGHT_BRACE.ordinal()] = "}";
+        spelling[TokenType.COMMA.ordinal()] = ",";
+        spelling[TokenType.DOT.ordinal()] = ".";
+        spelling[TokenType.SEMI_COLON.ordinal()] = ";";
+        spelling[TokenType.PLUS.ordinal()] = "+";
+        spelling[TokenType.MINUS.ordinal()] = "-";
+        spelling[TokenType.SLASH.ordinal()] = "/";
+        spelling[TokenType.STAR.ordinal()] = "*";
+        spelling[TokenType.NOT.ordinal()] = "!";
+        spelling[TokenType.NOT_EQUAL.ordinal()] = "!=";
+        spelling[TokenType.EQUAL.ordinal()] = "=";
+        spelling[TokenType.EQUAL_EQUAL.ordinal()] = "==";
+        spelling[TokenType.GREATER_EQUAL.ordinal()] = ">=";
+        spelling[TokenType.LESS_EQUAL.ordinal()] = "<=";
+        spelling[TokenType.GREATER.ordinal()] = ">";
+        spelling[TokenType.LESS.ordinal()] = "<";
+        spelling[TokenType.AND.ordinal()] = "and";
+        spelling[TokenType.CLASS.ordinal()] = "class";
+        spelling[TokenType.ELSE.ordinal()] = "else";
+        spelling[TokenType.FALSE.ordinal()] = "false";
+        spelling[TokenType.FOR.ordinal()] = "for";
+        spelling[TokenType.FUN.ordinal()] = "fun";
+        spelling[TokenType.IF.ordinal()] = "if";
+        spelling[TokenType.IMPORT.ordinal()] = "import";
+        spelling[TokenType.NIL.ordinal()] = "nil";
+        spelling[TokenType.OR.ordinal()] = "or";
+        spelling[TokenType.PRINT.ordinal()] = "print";
+        spelling[TokenType.RETURN.ordinal()] = "return";
+        spelling[TokenType.SUPER.ordinal()] = "super";
+        spelling[TokenType.THIS.ordinal()] = "this";
+        spelling[TokenType.TRUE.ordinal()] = "true";
+        spelling[TokenType.VAR.ordinal()] = "var";
+        spelling[TokenType.WHILE.ordinal()] = "while";
+    }
+
+    Scanner(Reader reader, ErrorReporter errors, Globals symbols){
+        this.reader = reader;
+        this.errors = errors;
+        this.symbols = symbols;
+    }
+
+    Scanner(String source, ErrorReporter errors, Globals symbols){
+        this(new StringReader(source), errors, symbols);
     }
 
+    //errors are printed, names go to a symbol table of its own.
     Scanner(String source){
-        this.source = source;
+        this(source, new ErrorReporter(), new Globals());
     }
 
-    ArrayList<Token> scan(){
-        while(!isAtEnd()){
+    //the next token in the source, EOF once it's used up.
+    Token next(){
+        token = null;
+        while(token == null){
             start = current;
+            if(isAtEnd()) return new Token(TokenType.EOF, "", null, line);
             scanToken();
         }
+        return token;
+    }
+
+    //makes sure at least n characters past current are buffered, unless
+    //the reader runs out first.
+    private boolean fill(int n){
+        while(limit - current < n){
+            if(drained) return false;
+            if(limit == buffer.length){
+                //tokens copy their text out, so the token being scanned is
+                //moved to the front, the buffer only grows for one that
+                //fills more than half of it.
+                int kept = limit - start;
+                if(kept*2 > buffer.length){
+                    char[] next = new char[buffer.length*2];
+                    System.arraycopy(buffer, start, next, 0, kept);
+                    buffer = next;
+                }else{
+                    System.arraycopy(buffer, start, buffer, 0, kept);
+                }
+                limit = kept;
+                current -= start;
+                start = 0;
+            }
+            try{
+                int read = reader.read(buffer, limit, buffer.length-limit);
+                if(read < 0) drained = true;
+                else limit += read;
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+
+    private String text(int from, int to){
+        return new String(buffer, from, to-from);
+    }
+
+    //hash has to be the String hash of buffer[from, to).
+    private Symbol intern(int from, int to, int hash){
+        int mask = names.length-1;
+        int index = hash & mask;
+        for(Symbol symbol = names[index];symbol != null;symbol = names[index]){
+            if(symbol.name.length() == to-from && sameText(symbol.name, from)) return symbol;
+            index = (index+1) & mask;
+        }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        Symbol symbol = symbols.intern(text(from, to));
+        names[index] = symbol;
+        if(++nameCount*2 > names.length) growNames();
+        return symbol;
+    }
 
-        return tokens;
+    private boolean sameText(String name, int from){
+        for(int i = 0;i < name.length();i++){
+            if(name.charAt(i) != buffer[from+i]) return false;
+        }
+        return true;
+    }
+
+    private void growNames(){
+        Symbol[] old = names;
+        names = new Symbol[old.length*2];
+        int mask = names.length-1;
+        for(Symbol symbol : old){
+            if(symbol == null) continue;
+            int index = symbol.name.hashCode() & mask;
+            while(names[index] != null) index = (index+1) & mask;
+            names[index] = symbol;
+        }
     }
 
     private void scanToken(){
@@ -58,6 +181,7 @@ public class Scanner {
             case '/':
                 if(match('/')){
                     while(peek() != '\n' && !isAtEnd()) advance();
+                    break;
                 }else {
                     addToken(TokenType.SLASH);
                     break;
@@ -81,28 +205,99 @@ public class Scanner {
                 }else if(isAlpha(c)){
                     identifier();
                 }else {
-                    Hyd.error(line, "Unknown Character.");
+                    errors.error(line, "Unknown Character.");
                 }
         }
     }
 
     private void identifier(){
-        while(isAlphaNumeric(peek())) advance();
+        //the hash for intern() is worked out on the way.
+        int hash = buffer[start];
+        while(current < limit || fill(1)){
+            char c = buffer[current];
+            if(!isAlphaNumeric(c)) break;
+            hash = 31*hash + c;
+            current++;
+        }
 
-        String val = source.substring(start, current);
-        TokenType type = reserved.get(val);
+        TokenType type = keyword();
 
-        if(type==null) {
-            type = TokenType.IDENTIFIER;
+        if(type==TokenType.IDENTIFIER) {
+            token = new Token(intern(start, current, hash), line);
+            return;
         }
 
         addToken(type);
+    }
 
+    //tells keywords from identifiers by walking the characters of the
+    //word, without making a string of it first.
+    private TokenType keyword(){
+        switch (buffer[start]){
+            case 'a': return keyword(1, "nd", TokenType.AND);
+            case 'c': return keyword(1, "lass", TokenType.CLASS);
+            case 'e': return keyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if(current - start > 1){
+                    switch (buffer[start+1]){
+                        case 'a': return keyword(2, "lse", TokenType.FALSE);
+                        case 'o': return keyword(2, "r", TokenType.FOR);
+                        case 'u': return keyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i':
+                if(current - start > 1){
+                    switch (buffer[start+1]){
+                        case 'f': return keyword(2, "", TokenType.IF);
+                        case 'm': return keyword(2, "port", TokenType.IMPORT);
+                    }
+                }
+                break;
+            case 'n': return keyword(1, "il", TokenType.NIL);
+            case 'o': return keyword(1, "r", TokenType.OR);
+            case 'p': return keyword(1, "rint", TokenType.PRINT);
+            case 'r': return keyword(1, "eturn", TokenType.RETURN);
+            case 's': return keyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if(current - start > 1){
+                    switch (buffer[start+1]){
+                        case 'h': return keyword(2, "is", TokenType.THIS);
+                        case 'r': return keyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(1, "ar", TokenType.VAR);
+            case 'w': return keyword(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType keyword(int offset, String rest, TokenType type){
+        if(current - start == offset + rest.length() && sameText(rest, start + offset)){
+            return type;
+        }
+        return TokenType.IDENTIFIER;
+
+    }
+
+    //whether text scans as a single identifier, keywords don't.
+    static boolean isIdentifier(String text){
+        if(text.isEmpty()) return false;
+        for(int i = 0;i < text.length();i++){
+            char c = text.charAt(i);
+            boolean alpha = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            if(!alpha && (i == 0 || c < '0' || c > '9')) return false;
+        }
+        for(String spelled : spelling){
+            if(text.equals(spelled)) return false;
+        }
+        return true;
     }
 
     private boolean isAlpha(char c){
         return (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
                 (c=='_');
     }
 
@@ -115,18 +310,34 @@ public class Scanner {
             advance();
         }
 
+        //kept relative to start, a refill can move the token.
+        int point = -1;
         if(peek()=='.' && isDigit(peekNext())){
+            point = current-start;
             advance();
             while(isDigit(peek())) advance();
         }
 
-        Double val = Double.parseDouble(source.substring(start, current));
+        //up to 15 digits are exact in a double, and so are the powers of
+        //ten up to 1e22, which makes the one division correctly rounded.
+        //anything longer goes through a string.
+        int decimals = point < 0 ? 0 : current-start-point-1;
+        double val;
+        if(current-start-(point < 0 ? 0 : 1) > 15 || decimals >= POWERS_OF_TEN.length){
+            val = Double.parseDouble(text(start, current));
+        }else{
+            long digits = 0;
+            for(int i = start;i < current;i++){
+                if(i-start != point) digits = digits*10 + (buffer[i]-'0');
+            }
+            val = decimals == 0 ? digits : digits / POWERS_OF_TEN[decimals];
+        }
         addToken(TokenType.NUMBER, val);
     }
 
     private char peekNext(){
-        if(current+1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if(current+1 >= limit && !fill(2)) return '\0';
+        return buffer[current+1];
     }
 
     private boolean isDigit(char c){
@@ -140,25 +351,24 @@ public class Scanner {
         }
 
         if(isAtEnd()){
-            Hyd.error(line, "String not Terminated.");
+            errors.error(line, "String not Terminated.");
             return;
         }
 
         advance();
 
-        String val = source.substring(start+1, current-1);
-        addToken(TokenType.STRING,val);
+        token = new Token(text(start+1, current-1), line);
 
     }
 
     private char peek(){
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     private boolean match(char c){
         if(isAtEnd()) return false;
-        if(source.charAt(current) != c) return false;
+        if(buffer[current] != c) return false;
 
         current++;
         return true;
@@ -167,17 +377,18 @@ public class Scanner {
     private void addToken(TokenType t){
         addToken(t, null);
     }
+    //numbers copy their text, the rest share the one spelling.
     private void addToken(TokenType type, Object literal){
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = spelling[type.ordinal()];
+        token = new Token(type, text != null ? text : text(start, current), literal, line);
     }
 
     private char advance(){
-        return source.charAt(current++);
+        return buffer[current++];
     }
 
 
     private boolean isAtEnd(){
-        return current >= source.length();
+        return current >= limit && !fill(1);
     }
 }
@@ -0,0 +1,616 @@
+package hyd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//resolved and optimized trees saved next to their scripts as .hydc files,
+//so a script that hasn't changed skips the scanner, parser and resolver.
+//a file is only used when the hash of the script, taken together with the
+//build of hyd that cached it, and the format version in its header match.
+class ScriptCache {
+    private static final int MAGIC = 0x48594443;
+    //bump whenever the trees, or what the resolver and optimizer leave
+    //in them, change.
+    private static final int VERSION = 3;
+
+    //tags for the nodes, 0 stands for a missing one.
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, GROUPING = 4,
+            LITERAL = 5, LOGICAL = 6, UNARY = 7, VARIABLE = 8;
+    private static final int BLOCK = 1, EXPRESSION = 2, FUNCTION = 3, IF = 4,
+            PRINT = 5, RETURN = 6, VAR = 7, WHILE = 8, IMPORT = 9;
+    private static final int NIL = 0, NUMBER = 1, STRING = 2, TRUE = 3, FALSE = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    static Path pathFor(Path script){
+        String name = script.getFileName().toString();
+        return script.resolveSibling(name.endsWith(".hyd") ? name + "c" : name + ".hydc");
+    }
+
+    //the build of hyd that is running: its version and the time its jar,
+    //or newest class file, was last written. a resolver or optimizer that
+    //changed without VERSION being bumped then still misses the cache.
+    private static final String BUILD = build();
+
+    private static String build(){
+        Package pkg = ScriptCache.class.getPackage();
+        String version = pkg == null ? null : pkg.getImplementationVersion();
+        long built = 0;
+        try{
+            CodeSource source = ScriptCache.class.getProtectionDomain().getCodeSource();
+            if(source != null) built = newest(Paths.get(source.getLocation().toURI()));
+        }catch (IOException | URISyntaxException | RuntimeException e){
+            //unknown, the version alone has to do.
+        }
+        return version + "@" + built;
+    }
+
+    private static long newest(Path location) throws IOException{
+        if(!Files.isDirectory(location)) return Files.getLastModifiedTime(location).toMillis();
+        final long[] newest = {0};
+        Files.walkFileTree(location.resolve("hyd"), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                newest[0] = Math.max(newest[0], attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return newest[0];
+    }
+
+    //the digest of a script, read through without keeping it.
+    static byte[] digest(Path script, Charset charset) throws IOException{
+        try(Digest in = new Digest(Files.newInputStream(script), charset)){
+            return in.digest();
+        }
+    }
+
+    //64-bit fnv-1a over the build, the charset name and the bytes read
+    //through it, with their count alongside. sha-256 would cost more to set
+    //up than a small script takes to compile. the charset goes in since the
+    //same bytes can read as a different script.
+    static final class Digest extends FilterInputStream{
+        private long hash = 0xcbf29ce484222325L;
+        private long length = 0;
+
+        Digest(InputStream in, Charset charset){
+            super(in);
+            for(byte b : (BUILD + "\n" + charset.name()).getBytes(StandardCharsets.UTF_8)){
+                hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b >= 0){
+                hash = (hash ^ b) * 0x100000001b3L;
+                length++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = in.read(buffer, offset, count);
+            for(int i = 0;i < read;i++){
+                hash = (hash ^ (buffer[offset + i] & 0xFF)) * 0x100000001b3L;
+            }
+            if(read > 0) length += read;
+            return read;
+        }
+
+        //skipped bytes are hashed too.
+        @Override
+        public long skip(long count) throws IOException {
+            byte[] buffer = new byte[(int)Math.min(count, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        //reads whatever is left, then the digest of everything read.
+        byte[] digest() throws IOException{
+            byte[] buffer = new byte[8192];
+            while(read(buffer, 0, buffer.length) >= 0){
+                //hashed as it goes.
+            }
+            return ByteBuffer.allocate(16).putLong(hash).putLong(length).array();
+        }
+    }
+
+    //the tree cached for a script with the given digest, or null when
+    //there is none, it's stale, or it can't be read. its names go to symbols,
+    //its imports are relative to dir, like when it was parsed.
+    static List<Stmt> load(Path path, byte[] digest, Globals symbols, Path dir){
+        byte[] bytes;
+        try{
+            bytes = Files.readAllBytes(path);
+        }catch (IOException e){
+            return null;
+        }
+
+        try{
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            byte[] key = new byte[digest.length];
+            in.readFully(key);
+            if(!Arrays.equals(key, digest)) return null;
+
+            List<Stmt> statements = new Reader(in, symbols, dir).statements();
+            if(in.read() != -1) return null;
+            return statements;
+        }catch (IOException | RuntimeException e){
+            return null;
+        }
+    }
+
+    //best effort, a script in a read-only directory just isn't cached.
+    //written to a temporary file first so that processes starting at the
+    //same time never see half a file.
+    static void store(Path path, byte[] digest, List<Stmt> statements){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try{
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(digest);
+            new Writer(bytes).statements(statements);
+
+            Path temp = path.resolveSibling(path.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            try{
+                Files.write(temp, bytes.toByteArray(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }finally {
+                Files.deleteIfExists(temp);
+            }
+        }catch (IOException e){
+            //nothing to do, the next run compiles again.
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+        private final ByteArrayOutputStream out;
+        //every distinct string is written once, after that by its index.
+        private final Map<String, Integer> strings = new HashMap<>();
+        //lines are written as the difference from the last token's.
+        private int line = 0;
+        //blocks and functions around the statement being written, the
+        //vars and funs outside all of them are globals.
+        private int scopes = 0;
+
+        Writer(ByteArrayOutputStream out){
+            this.out = out;
+        }
+
+        void statements(List<Stmt> statements){
+            number(statements.size());
+            for(Stmt stmt : statements) stmt(stmt);
+        }
+
+        private void stmt(Stmt stmt){
+            if(stmt == null){
+                out.write(0);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        private void expr(Expr expr){
+            if(expr == null){
+                out.write(0);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void exprs(List<Expr> exprs){
+            number(exprs.size());
+            for(Expr expr : exprs) expr(expr);
+        }
+
+        //the text of fixed tokens comes back from Scanner.spelling.
+        private void token(Token token){
+            out.write(token.type.ordinal());
+            if(Scanner.spelling[token.type.ordinal()] == null) string(token.lexeme());
+            literal(token.literal);
+            int delta = token.line - line;
+            number((delta << 1) ^ (delta >> 31));
+            line = token.line;
+        }
+
+        private void literal(Object value){
+            if(value == null){
+                out.write(NIL);
+            }else if(value instanceof Double){
+                out.write(NUMBER);
+                long bits = Double.doubleToRawLongBits((Double)value);
+                for(int shift = 56;shift >= 0;shift -= 8) out.write((int)(bits >>> shift));
+            }else if(value instanceof String){
+                out.write(STRING);
+                string((String)value);
+            }else{
+                out.write((Boolean)value ? TRUE : FALSE);
+            }
+        }
+
+        private void string(String s){
+            Integer index = strings.get(s);
+            if(index != null){
+                number(index + 1);
+                return;
+            }
+            strings.put(s, strings.size());
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            number(0);
+            number(utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+
+        //unsigned, seven bits a byte.
+        private void number(int n){
+            while((n & ~0x7F) != 0){
+                out.write((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            out.write(n);
+        }
+
+        //global slots differ from process to process, they're looked up
+        //again by name when the tree is read.
+        private void variable(int depth, int slot){
+            number(depth + 1);
+            if(depth >= 0) number(slot);
+        }
+
+        private void declared(int slot){
+            if(scopes > 0) number(slot);
+        }
+
+        private void node(int tag, Expr expr){
+            out.write(tag);
+            out.write(expr.numeric ? 1 : 0);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            node(ASSIGN, expr);
+            token(expr.name);
+            expr(expr.value);
+            variable(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            node(BINARY, expr);
+            expr(expr.left);
+            token(expr.oper);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            node(CALL, expr);
+            expr(expr.callee);
+            token(expr.paren);
+            exprs(expr.arguments);
+            out.write(expr.tail ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            node(GROUPING, expr);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            node(LITERAL, expr);
+            literal(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            node(LOGICAL, expr);
+            expr(expr.left);
+            token(expr.oper);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            node(UNARY, expr);
+            token(expr.oper);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            node(VARIABLE, expr);
+            token(expr.name);
+            variable(expr.depth, expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.write(BLOCK);
+            scopes++;
+            statements(stmt.statements);
+            scopes--;
+            number(stmt.locals);
+            out.write(stmt.flat ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.write(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            out.write(FUNCTION);
+            token(stmt.name);
+            declared(stmt.slot);
+            number(stmt.params.size());
+            for(Token param : stmt.params) token(param);
+            scopes++;
+            statements(stmt.body);
+            scopes--;
+            number(stmt.locals);
+            out.write(stmt.pure ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            out.write(IMPORT);
+            token(stmt.keyword);
+            token(stmt.path);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            out.write(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            out.write(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            out.write(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.write(VAR);
+            token(stmt.name);
+            declared(stmt.slot);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            out.write(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+    }
+
+    //mirrors Writer, anything it doesn't expect is an error.
+    private static class Reader{
+        private final DataInputStream in;
+        private final Globals symbols;
+        private final Path dir;
+        private final List<String> strings = new ArrayList<>();
+        private int line = 0;
+        private int scopes = 0;
+
+        Reader(DataInputStream in, Globals symbols, Path dir){
+            this.in = in;
+            this.symbols = symbols;
+            this.dir = dir;
+        }
+
+        List<Stmt> statements() throws IOException{
+            int count = number();
+            List<Stmt> statements = new ArrayList<>(count);
+            for(int i = 0;i < count;i++) statements.add(stmt());
+            return statements;
+        }
+
+        private Stmt stmt() throws IOException{
+            int tag = in.readUnsignedByte();
+            switch (tag){
+                case 0: return null;
+                case BLOCK: {
+                    scopes++;
+                    Stmt.Block block = new Stmt.Block(statements());
+                    scopes--;
+                    block.locals = number();
+                    block.flat = in.readBoolean();
+                    return block;
+                }
+                case EXPRESSION: return new Stmt.Expression(expr());
+                case FUNCTION: {
+                    Token name = token();
+                    int slot = declared(name);
+                    int count = number();
+                    List<Token> params = new ArrayList<>(count);
+                    for(int i = 0;i < count;i++) params.add(token());
+                    scopes++;
+                    Stmt.Function function = new Stmt.Function(name, params, statements());
+                    scopes--;
+                    function.slot = slot;
+                    function.locals = number();
+                    function.pure = in.readBoolean();
+                    return function;
+                }
+                case IF: return new Stmt.If(expr(), stmt(), stmt());
+                case IMPORT: {
+                    Token keyword = token();
+                    Token path = token();
+                    return new Stmt.Import(keyword, path, Parser.file(dir, path));
+                }
+                case PRINT: return new Stmt.Print(expr());
+                case RETURN: return new Stmt.Return(token(), expr());
+                case VAR: {
+                    Token name = token();
+                    int slot = declared(name);
+                    Stmt.Var var = new Stmt.Var(name, expr());
+                    var.slot = slot;
+                    return var;
+                }
+                case WHILE: return new Stmt.While(expr(), stmt());
+            }
+            throw new IOException("bad statement tag " + tag);
+        }
+
+        private Expr expr() throws IOException{
+            int tag = in.readUnsignedByte();
+            if(tag == 0) return null;
+            boolean numeric = in.readBoolean();
+
+            Expr expr;
+            switch (tag){
+                case ASSIGN: {
+                    Expr.Assign assign = new Expr.Assign(token(), expr());
+                    assign.depth = number() - 1;
+                    assign.slot = slot(assign.depth, assign.name);
+                    expr = assign;
+                    break;
+                }
+                case BINARY: expr = new Expr.Binary(expr(), token(), expr()); break;
+                case CALL: {
+                    Expr.Call call = new Expr.Call(expr(), token(), exprs());
+                    call.tail = in.readBoolean();
+                    expr = call;
+                    break;
+                }
+                case GROUPING: expr = new Expr.Grouping(expr()); break;
+                case LITERAL: expr = new Expr.Literal(literal()); break;
+                case LOGICAL: expr = new Expr.Logical(expr(), token(), expr()); break;
+                case UNARY: expr = new Expr.Unary(token(), expr()); break;
+                case VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(token());
+                    variable.depth = number() - 1;
+                    variable.slot = slot(variable.depth, variable.name);
+                    expr = variable;
+                    break;
+                }
+                default: throw new IOException("bad expression tag " + tag);
+            }
+            expr.numeric = numeric;
+            return expr;
+        }
+
+        private int slot(int depth, Token name) throws IOException{
+            return depth >= 0 ? number() : symbols.slot(name.symbol);
+        }
+
+        private int declared(Token name) throws IOException{
+            return scopes > 0 ? number() : symbols.slot(name.symbol);
+        }
+
+        private List<Expr> exprs() throws IOException{
+            int count = number();
+            List<Expr> exprs = new ArrayList<>(count);
+            for(int i = 0;i < count;i++) exprs.add(expr());
+            return exprs;
+        }
+
+        private Token token() throws IOException{
+            TokenType type = TYPES[in.readUnsignedByte()];
+            String lexeme = Scanner.spelling[type.ordinal()];
+            if(lexeme == null) lexeme = string();
+            Object literal = literal();
+            int delta = number();
+            line += (delta >>> 1) ^ -(delta & 1);
+            if(type == TokenType.IDENTIFIER) return new Token(symbols.intern(lexeme), line);
+            return new Token(type, lexeme, literal, line);
+        }
+
+        private Object literal() throws IOException{
+            int tag = in.readUnsignedByte();
+            switch (tag){
+                case NIL: return null;
+                case NUMBER: return in.readDouble();
+                case STRING: return string();
+                case TRUE: return true;
+                case FALSE: return false;
+            }
+            throw new IOException("bad literal tag " + tag);
+        }
+
+        private String string() throws IOException{
+            int index = number();
+            if(index > 0) return strings.get(index - 1);
+            byte[] utf8 = new byte[number()];
+            in.readFully(utf8);
+            String s = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        private int number() throws IOException{
+            int n = 0;
+            for(int shift = 0;;shift += 7){
+                int b = in.readUnsignedByte();
+                n |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) return n;
+            }
+        }
+    }
+}
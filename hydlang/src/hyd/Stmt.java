@@ -8,6 +8,7 @@ abstract class Stmt{
     R visitExpressionStmt(Expression stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
+    R visitImportStmt(Import stmt);
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
@@ -15,6 +16,8 @@ abstract class Stmt{
  }
 static class Block extends Stmt{
     final List<Stmt> statements;
+    int locals;
+    boolean flat;
     Block(List<Stmt> statements) {
     this.statements= statements;
     }
@@ -39,6 +42,11 @@ static class Function extends Stmt{
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot;
+    int locals;
+    volatile int calls;
+    volatile CompiledFunction compiled;
+    boolean pure;
     Function(Token name, List<Token> params, List<Stmt> body) {
     this.name= name;
     this.params= params;
@@ -65,6 +73,21 @@ static class If extends Stmt{
         return visitor.visitIfStmt(this);
     }
 }
+static class Import extends Stmt{
+    final Token keyword;
+    final Token path;
+    final String file;
+    Import(Token keyword, Token path, String file) {
+    this.keyword= keyword;
+    this.path= path;
+    this.file= file;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor){
+        return visitor.visitImportStmt(this);
+    }
+}
 static class Print extends Stmt{
     final Expr expression;
     Print(Expr expression) {
@@ -92,6 +115,7 @@ static class Return extends Stmt{
 static class Var extends Stmt{
     final Token name;
     final Expr initializer;
+    int slot;
     Var(Token name, Expr initializer) {
     this.name= name;
     this.initializer= initializer;
@@ -0,0 +1,23 @@
+package hyd;
+
+//an identifier, unique per name in its runtime's symbol table, so names
+//are compared by identity and hashed by address. the Scanner hands them out. a name
+//the Resolver finds to be a global also gets a slot in the global
+//environment, see Globals.slot.
+final class Symbol {
+    //no slot handed out yet, the name has only been a local so far.
+    static final int NONE = -1;
+
+    final String name;
+    //written under the Globals lock.
+    volatile int slot = NONE;
+
+    Symbol(String name){
+        this.name = name;
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
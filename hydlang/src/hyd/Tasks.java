@@ -0,0 +1,408 @@
+package hyd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+//the natives for running functions side by side: spawn, join and bounded
+//channels with send, receive and select. a spawned function runs on a
+//thread of its own, a virtual one on jvms that have them, with an
+//interpreter of its own that shares the globals of the one spawning it.
+//tasks belong to the run that spawned them and are stopped when it ends.
+//locks are used over synchronized so a waiting virtual thread doesn't
+//hold on to its carrier.
+final class Tasks {
+    private static final ExecutorService threads = threads();
+    //stands in for nil in a channel.
+    private static final Object NIL = new Object();
+
+    private Tasks(){}
+
+    private static ExecutorService threads(){
+        try{
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch (ReflectiveOperationException e){
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "hyd-task");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    static final class Task{
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private Future<Object> result;
+        //the thread running it, guarded by the group's lock.
+        private Thread thread;
+        private volatile boolean joined = false;
+        private volatile Throwable error;
+
+        @Override
+        public String toString(){
+            return "<task>";
+        }
+    }
+
+    //thrown in a task once the run it belongs to has ended, to unwind it.
+    static final class Stopped extends RuntimeException{
+        Stopped(){
+            super("Task stopped.", null, false, false);
+        }
+    }
+
+    //the tasks of a root interpreter and its forks. the interpreter stops
+    //them when a run ends, see Interpreter.run.
+    static final class Group{
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Task> tasks = new ArrayList<>();
+        //tasks are dropped from the list once they are done and nobody
+        //needs their error, whenever it grows this big.
+        private int prune = 16;
+        //read by every loop and call of a task, see Interpreter.poll.
+        volatile boolean stopped = false;
+
+        Task spawn(final HydFunction function, final Interpreter interpreter){
+            final Task task = new Task();
+            lock.lock();
+            try{
+                if(stopped) throw new Stopped();
+                if(tasks.size() >= prune){
+                    for(Iterator<Task> i = tasks.iterator();i.hasNext();){
+                        Task done = i.next();
+                        if(done.finished.getCount() == 0 && (done.joined || done.error == null)) i.remove();
+                    }
+                    prune = Math.max(16, tasks.size() * 2);
+                }
+                tasks.add(task);
+                task.result = threads.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return run(task, function, interpreter);
+                    }
+                });
+            }finally {
+                lock.unlock();
+            }
+            return task;
+        }
+
+        private Object run(Task task, HydFunction function, Interpreter interpreter){
+            try{
+                lock.lock();
+                try{
+                    if(stopped) throw new Stopped();
+                    task.thread = Thread.currentThread();
+                }finally {
+                    lock.unlock();
+                }
+                return function.call(interpreter, Collections.emptyList());
+            }catch (RuntimeException | Error e){
+                task.error = e;
+                throw e;
+            }finally {
+                //an interrupt from stop() isn't left on a pooled thread.
+                lock.lock();
+                try{
+                    task.thread = null;
+                    Thread.interrupted();
+                }finally {
+                    lock.unlock();
+                }
+                task.finished.countDown();
+            }
+        }
+
+        //stops every task still running, waking the ones that wait, and
+        //waits for them to end. returns the errors of the tasks that failed
+        //without anybody joining them. the group takes new tasks again after.
+        List<RuntimeError> stop(){
+            List<Task> stopping;
+            lock.lock();
+            try{
+                stopped = true;
+                stopping = new ArrayList<>(tasks);
+                tasks.clear();
+                prune = 16;
+                for(Task task : stopping){
+                    if(task.thread != null) task.thread.interrupt();
+                }
+            }finally {
+                lock.unlock();
+            }
+
+            List<RuntimeError> failed = new ArrayList<>();
+            boolean interrupted = false;
+            try{
+                for(Task task : stopping){
+                    while(true){
+                        try{
+                            task.finished.await();
+                            break;
+                        }catch (InterruptedException e){
+                            interrupted = true;
+                        }
+                    }
+                    Throwable error = task.error;
+                    if(task.joined || error == null || error instanceof Stopped) continue;
+                    //what join would have thrown, the failures of hyd code as errors of the run.
+                    if(error instanceof Error) throw (Error)error;
+                    if(!(error instanceof RuntimeError)) throw (RuntimeException)error;
+                    failed.add(new RuntimeError(((RuntimeError)error).token, "Task failed: " + error.getMessage()));
+                }
+            }finally {
+                stopped = false;
+                if(interrupted) Thread.currentThread().interrupt();
+            }
+            return failed;
+        }
+    }
+
+    static final class Channel{
+        private final ArrayDeque<Object> values = new ArrayDeque<>();
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        //selects waiting on this channel among others.
+        private final List<Selector> selectors = new ArrayList<>();
+
+        Channel(int capacity){
+            this.capacity = capacity;
+        }
+
+        void send(Object value) throws InterruptedException{
+            lock.lock();
+            try{
+                while(values.size() == capacity) notFull.await();
+                values.add(value == null ? NIL : value);
+                notEmpty.signal();
+                for(Selector selector : selectors) selector.wake();
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        Object receive() throws InterruptedException{
+            lock.lock();
+            try{
+                while(values.isEmpty()) notEmpty.await();
+                return take();
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        //the next value, or this channel when there's none.
+        Object poll(){
+            lock.lock();
+            try{
+                return values.isEmpty() ? this : take();
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        private Object take(){
+            Object value = values.remove();
+            notFull.signal();
+            return value == NIL ? null : value;
+        }
+
+        void watch(Selector selector){
+            lock.lock();
+            try{
+                selectors.add(selector);
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        void unwatch(Selector selector){
+            lock.lock();
+            try{
+                selectors.remove(selector);
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString(){
+            return "<channel>";
+        }
+    }
+
+    //woken by a send to any of the channels a select waits on.
+    private static final class Selector{
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition sent = lock.newCondition();
+        private boolean woken = false;
+
+        void wake(){
+            lock.lock();
+            try{
+                woken = true;
+                sent.signal();
+            }finally {
+                lock.unlock();
+            }
+        }
+
+        void await() throws InterruptedException{
+            lock.lock();
+            try{
+                while(!woken) sent.await();
+                woken = false;
+            }finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //a value from whichever channel has one first, trying them in a random
+    //order so neither is starved.
+    static Object select(Channel a, Channel b) throws InterruptedException{
+        if(ThreadLocalRandom.current().nextBoolean()){
+            Channel swap = a;
+            a = b;
+            b = swap;
+        }
+        Selector selector = new Selector();
+        a.watch(selector);
+        b.watch(selector);
+        try{
+            while(true){
+                //a send after these polls wakes the selector, so it isn't missed.
+                Object value = a.poll();
+                if(value != a) return value;
+                value = b.poll();
+                if(value != b) return value;
+                selector.await();
+            }
+        }finally {
+            a.unwatch(selector);
+            b.unwatch(selector);
+        }
+    }
+
+    //adds the task natives to the ones every interpreter starts with.
+    static void define(Map<String, HydCallable> natives){
+        natives.put("spawn", new Native(1) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) {
+                //hyd functions only, so the errors of a task have a line.
+                if(!(args.get(0) instanceof HydFunction) || ((HydFunction)args.get(0)).arity() != 0){
+                    throw new RuntimeError(null, "Can only spawn functions without parameters.");
+                }
+                return interpreter.tasks.spawn((HydFunction)args.get(0), interpreter.fork());
+            }
+        });
+        natives.put("join", new Native(1) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) throws InterruptedException {
+                if(!(args.get(0) instanceof Task)) throw new RuntimeError(null, "Can only join tasks.");
+                Task task = (Task)args.get(0);
+                task.joined = true;
+                try{
+                    return task.result.get();
+                }catch (ExecutionException e){
+                    //the task's own error, with the line it failed on.
+                    Throwable cause = e.getCause();
+                    if(cause instanceof Stopped){
+                        //this run is ending too, or it ended an earlier one.
+                        if(interpreter.tasks.stopped) throw (Stopped)cause;
+                        throw new RuntimeError(null, "Task was stopped.");
+                    }
+                    if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if(cause instanceof Error) throw (Error)cause;
+                    throw new RuntimeError(null, "Task failed: " + cause);
+                }
+            }
+        });
+        natives.put("channel", new Native(1) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) {
+                Object capacity = args.get(0);
+                if(!(capacity instanceof Double) || (double)capacity < 1 ||
+                        (double)capacity != Math.floor((double)capacity) || (double)capacity > Integer.MAX_VALUE){
+                    throw new RuntimeError(null, "Channel capacity must be a positive whole number.");
+                }
+                return new Channel((int)(double)capacity);
+            }
+        });
+        natives.put("send", new Native(2) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) throws InterruptedException {
+                channel(args.get(0)).send(args.get(1));
+                return null;
+            }
+        });
+        natives.put("receive", new Native(1) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) throws InterruptedException {
+                return channel(args.get(0)).receive();
+            }
+        });
+        natives.put("select", new Native(2) {
+            @Override
+            Object run(Interpreter interpreter, List<Object> args) throws InterruptedException {
+                return select(channel(args.get(0)), channel(args.get(1)));
+            }
+        });
+    }
+
+    private static Channel channel(Object value){
+        if(!(value instanceof Channel)) throw new RuntimeError(null, "Expected a channel.");
+        return (Channel)value;
+    }
+
+    //natives don't have a token, CallNode gives their errors the call's.
+    private abstract static class Native implements HydCallable{
+        private final int arity;
+
+        Native(int arity){
+            this.arity = arity;
+        }
+
+        abstract Object run(Interpreter interpreter, List<Object> args) throws InterruptedException;
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            try{
+                return run(interpreter, args);
+            }catch (InterruptedException e){
+                //woken by the end of the run.
+                if(interpreter.tasks.stopped) throw new Stopped();
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while waiting.");
+            }
+        }
+
+        @Override
+        public String toString(){
+            return "<native function>";
+        }
+    }
+}
@@ -2,18 +2,48 @@ package hyd;
 
 public class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
+    //for identifiers, null for everything else.
+    final Symbol symbol;
+    //null for strings until someone asks for it, it is built from the
+    //value then. tokens outlive the scan in the tree, so none of them keeps
+    //the scanner's buffer.
+    private String lexeme;
+
+    Token(Symbol symbol, int line){
+        this(TokenType.IDENTIFIER, symbol.name, null, line, symbol);
+    }
 
     Token(TokenType type, String lexeme, Object literal, int line){
+        this(type, lexeme, literal, line, null);
+    }
+
+    private Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol){
         this.lexeme = lexeme;
+        this.symbol = symbol;
         this.type = type;
         this.line = line;
         this.literal = literal;
     }
 
+    //a string literal, the scanner has already made its value.
+    Token(String value, int line){
+        this(TokenType.STRING, null, value, line, null);
+    }
+
+    //threads sharing a tree may each build the text of a string, they
+    //all get an equal one.
+    String lexeme(){
+        String text = lexeme;
+        if(text == null){
+            text = "\"" + literal + "\"";
+            lexeme = text;
+        }
+        return text;
+    }
+
     public String toString(){
-        return "["+type+"]    ["+lexeme+"]   ["+literal +"]";
+        return "["+type+"]    ["+lexeme()+"]   ["+literal +"]";
     }
 }
@@ -0,0 +1,113 @@
+package hyd.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//writes just enough of the class file format for the jit: one class with
+//a handful of methods. classes are emitted as version 49 so that branches
+//don't need stack map frames, the verifier infers them.
+public final class ClassWriter {
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    public ClassWriter(String name, String superName){
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+    }
+
+    public Code method(String name, String descriptor, int maxLocals){
+        Code code = new Code(this, utf8(name), utf8(descriptor), maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    public byte[] toBytes(){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int codeName = utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); //public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); //interfaces
+            out.writeShort(0); //fields
+            out.writeShort(methods.size());
+            for(Code method : methods){
+                method.write(out, codeName);
+            }
+            out.writeShort(0); //attributes
+            return bytes.toByteArray();
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //constant pool:
+    private int entry(String key, int tag, Object... parts){
+        Integer index = entries.get(key);
+        if(index != null) return index;
+        try{
+            pool.writeByte(tag);
+            for(Object part : parts){
+                if(part instanceof String) pool.writeUTF((String)part);
+                else if(part instanceof Long) pool.writeLong((Long)part);
+                else pool.writeShort((Integer)part);
+            }
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+        index = poolCount;
+        poolCount += tag == 6 ? 2 : 1;
+        entries.put(key, index);
+        return index;
+    }
+
+    int utf8(String value){
+        return entry("U" + value, 1, value);
+    }
+
+    int classRef(String name){
+        return entry("C" + name, 7, utf8(name));
+    }
+
+    int string(String value){
+        return entry("S" + value, 8, utf8(value));
+    }
+
+    int doubleConstant(double value){
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 6, bits);
+    }
+
+    private int nameAndType(String name, String descriptor){
+        return entry("N" + name + ";" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    int fieldRef(String owner, String name, String descriptor){
+        return entry("F" + owner + "." + name + ";" + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor){
+        return entry("M" + owner + "." + name + ";" + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+}
@@ -0,0 +1,180 @@
+package hyd.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//the body of one method. tracks the operand stack depth as instructions
+//are added, so that max_stack comes out right without a separate pass.
+public final class Code {
+    public static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04;
+    public static final int POP = 0x57, DUP = 0x59, DUP_X1 = 0x5a, SWAP = 0x5f;
+    public static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77;
+    public static final int DCMPL = 0x97, DCMPG = 0x98;
+    public static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    public static final int GOTO = 0xa7, ARETURN = 0xb0, AALOAD = 0x32, RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2, GETFIELD = 0xb4;
+    public static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+    public static final int ANEWARRAY = 0xbd, AASTORE = 0x53, CHECKCAST = 0xc0;
+
+    public static final class Label {
+        private int position = -1;
+        private final List<Integer> uses = new ArrayList<>();
+    }
+
+    private final ClassWriter owner;
+    private final int name;
+    private final int descriptor;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final List<Label> labels = new ArrayList<>();
+    private int maxLocals;
+    private int stack = 0;
+    private int maxStack = 0;
+
+    Code(ClassWriter owner, int name, int descriptor, int maxLocals){
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxLocals = maxLocals;
+    }
+
+    //raw instructions, effect is what they do to the stack depth.
+    public void op(int opcode, int effect){
+        write(opcode);
+        adjust(effect);
+    }
+
+    public void aload(int local){
+        write(0x19);
+        write(local);
+        adjust(1);
+        maxLocals = Math.max(maxLocals, local+1);
+    }
+
+    public void astore(int local){
+        write(0x3a);
+        write(local);
+        adjust(-1);
+        maxLocals = Math.max(maxLocals, local+1);
+    }
+
+    public void iconst(int value){
+        if(value >= -128 && value <= 127){
+            write(0x10);
+            write(value);
+        }else{
+            write(0x11);
+            writeShort(value);
+        }
+        adjust(1);
+    }
+
+    public void ldc(String value){
+        write(0x13);
+        writeShort(owner.string(value));
+        adjust(1);
+    }
+
+    public void ldc(double value){
+        write(0x14);
+        writeShort(owner.doubleConstant(value));
+        adjust(2);
+    }
+
+    public void type(int opcode, String type){
+        write(opcode);
+        writeShort(owner.classRef(type));
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor){
+        write(opcode);
+        writeShort(this.owner.fieldRef(owner, name, descriptor));
+        int size = descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+        adjust(opcode == GETFIELD ? size - 1 : size);
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor){
+        write(opcode);
+        writeShort(this.owner.methodRef(owner, name, descriptor));
+        int effect = opcode == INVOKESTATIC ? 0 : -1;
+        int i = 1;
+        while(descriptor.charAt(i) != ')'){
+            char c = descriptor.charAt(i);
+            effect -= c == 'D' || c == 'J' ? 2 : 1;
+            while(descriptor.charAt(i) == '[') i++;
+            if(descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        char result = descriptor.charAt(i+1);
+        effect += result == 'V' ? 0 : result == 'D' || result == 'J' ? 2 : 1;
+        adjust(effect);
+    }
+
+    //branches:
+    public Label label(){
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    public void mark(Label label){
+        label.position = bytes.size();
+    }
+
+    public void jump(int opcode, Label target){
+        int at = bytes.size();
+        write(opcode);
+        target.uses.add(at);
+        writeShort(0);
+        adjust(opcode == GOTO ? 0 : -1);
+    }
+
+    //the depth at a label reached only by a jump isn't known from the
+    //straight line code before it, so the compiler sets it.
+    public void stack(int depth){
+        stack = depth;
+    }
+
+    public int stack(){
+        return stack;
+    }
+
+    void write(DataOutputStream out, int codeName) throws IOException{
+        byte[] body = bytes.toByteArray();
+        for(Label label : labels){
+            for(int at : label.uses){
+                int offset = label.position - at;
+                body[at+1] = (byte)(offset >> 8);
+                body[at+2] = (byte)offset;
+            }
+        }
+        out.writeShort(0x0001); //public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0); //exception table
+        out.writeShort(0); //attributes
+    }
+
+    private void adjust(int effect){
+        stack += effect;
+        if(stack > maxStack) maxStack = stack;
+    }
+
+    private void write(int b){
+        bytes.write(b);
+    }
+
+    private void writeShort(int value){
+        bytes.write(value >> 8);
+        bytes.write(value);
+    }
+}
@@ -0,0 +1,13 @@
+package hyd.jit;
+
+//each compiled function gets its own loader, so the class can be
+//collected along with the function once nothing refers to it.
+public final class Loader extends ClassLoader {
+    public Loader(ClassLoader parent){
+        super(parent);
+    }
+
+    public Class<?> define(String name, byte[] bytes){
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,142 @@
+package hyd.script;
+
+import hyd.HydContext;
+import hyd.HydException;
+import hyd.HydProgram;
+import hyd.HydRuntime;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+//runs hyd for javax.script. every eval runs in a fresh HydContext whose
+//globals start out as the context's bindings, global scope first so the
+//engine scope wins. only bindings some script uses as a global are
+//defined, so attributes and one-off keys never reach the runtime's symbol
+//table. the values the script leaves in its globals are put back into the
+//engine scope. compiled scripts are parsed once and can be evaluated from
+//any number of threads.
+public class HydScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final HydScriptEngineFactory factory;
+    private final HydRuntime runtime = new HydRuntime();
+
+    HydScriptEngine(HydScriptEngineFactory factory){
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return eval(compile(new StringReader(script), context), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(compile(reader, context), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return new Compiled(compile(new StringReader(script), context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return new Compiled(compile(script, context));
+    }
+
+    private HydProgram compile(Reader script, ScriptContext context) throws ScriptException {
+        try{
+            return runtime.compile(script, dir(context));
+        }catch (HydException e){
+            throw exception(e, context);
+        }
+    }
+
+    //the script runs to the end, there's no value to return.
+    private Object eval(HydProgram program, ScriptContext context) throws ScriptException {
+        HydContext hyd = runtime.newContext();
+        hyd.setOutput(context.getWriter());
+        define(hyd, context.getBindings(ScriptContext.GLOBAL_SCOPE));
+        define(hyd, context.getBindings(ScriptContext.ENGINE_SCOPE));
+
+        try{
+            hyd.run(program);
+        }catch (HydException e){
+            throw exception(e, context);
+        }finally {
+            Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if(engine != null) export(hyd, engine);
+        }
+        return null;
+    }
+
+    private static void define(HydContext hyd, Bindings bindings){
+        if(bindings == null) return;
+        for(Map.Entry<String, Object> binding : bindings.entrySet()){
+            hyd.bind(binding.getKey(), binding.getValue());
+        }
+    }
+
+    //only numbers, strings and booleans go back. a function would keep the
+    //globals of the context it was declared in if a later eval called it.
+    private static void export(HydContext hyd, Bindings bindings){
+        for(Map.Entry<String, Object> global : hyd.globals().entrySet()){
+            Object value = global.getValue();
+            if(value instanceof Double || value instanceof String || value instanceof Boolean){
+                bindings.put(global.getKey(), value);
+            }
+        }
+    }
+
+    //imports are relative to the script's file when the context names one.
+    private static Path dir(ScriptContext context){
+        Object file = context.getAttribute(ScriptEngine.FILENAME);
+        if(file == null) return Paths.get("");
+        Path dir = Paths.get(file.toString()).toAbsolutePath().getParent();
+        return dir == null ? Paths.get("") : dir;
+    }
+
+    private static ScriptException exception(HydException e, ScriptContext context){
+        Object file = context.getAttribute(ScriptEngine.FILENAME);
+        return new ScriptException(e.getMessage(), file == null ? null : file.toString(), e.getLine());
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private class Compiled extends CompiledScript{
+        private final HydProgram program;
+
+        Compiled(HydProgram program){
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return HydScriptEngine.this.eval(program, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return HydScriptEngine.this;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package hyd.script;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//makes hyd available to javax.script, through
+//new ScriptEngineManager().getEngineByName("hyd").
+public class HydScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList("hyd", "hydlang"));
+    private static final List<String> EXTENSIONS = Collections.singletonList("hyd");
+    private static final List<String> MIME_TYPES = Collections.singletonList("application/x-hyd");
+
+    @Override
+    public String getEngineName() {
+        return "hydlang";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "0.1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "hyd";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "0.1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key){
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return NAMES.get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            //every eval gets globals of its own, so evals can run on any
+            //number of threads and only see each other through bindings.
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    //hyd has no methods, only functions.
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        StringBuilder call = new StringBuilder(m).append('(');
+        for(int i = 0;i < args.length;i++){
+            if(i > 0) call.append(", ");
+            call.append(args[i]);
+        }
+        return call.append(')').toString();
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for(String statement : statements){
+            program.append(statement);
+            if(!statement.endsWith(";") && !statement.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new HydScriptEngine(this);
+    }
+}
@@ -0,0 +1,86 @@
+package hyd.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a compiled body of code: the instructions, the source line of every byte
+//of them, and the constants they refer to.
+public final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants;
+    //unboxed copies of the number constants, at the same indices.
+    double[] numbers;
+    String[] globalNames;
+    //filled in by the vm that links the chunk.
+    Global[] globals;
+    private final List<Object> pool = new ArrayList<>();
+    private final Map<Object, Integer> indices = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public void write(int b, int line){
+        if(count == code.length){
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte)b;
+        lines[count] = line;
+        count++;
+    }
+
+    public void writeShort(int value, int line){
+        write((value >> 8) & 0xff, line);
+        write(value & 0xff, line);
+    }
+
+    public void patchShort(int offset, int value){
+        code[offset] = (byte)((value >> 8) & 0xff);
+        code[offset+1] = (byte)(value & 0xff);
+    }
+
+    public void patch(int offset, int b, int line){
+        code[offset] = (byte)b;
+        lines[offset] = line;
+    }
+
+    public int line(int offset){
+        return lines[offset];
+    }
+
+    public int count(){
+        return count;
+    }
+
+    //constants are shared, so the same string or number is only stored once.
+    public int addConstant(Object value){
+        Integer index = indices.get(value);
+        if(index != null) return index;
+        pool.add(value);
+        indices.put(value, pool.size()-1);
+        return pool.size()-1;
+    }
+
+    //names of globals get their own table, separate from the constants.
+    public int addGlobal(String name){
+        int index = names.indexOf(name);
+        if(index >= 0) return index;
+        names.add(name);
+        return names.size()-1;
+    }
+
+    void seal(){
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = pool.toArray();
+        numbers = new double[constants.length];
+        for(int i = 0;i < constants.length;i++){
+            if(constants[i] instanceof Double) numbers[i] = (Double)constants[i];
+        }
+        globalNames = names.toArray(new String[0]);
+        indices.clear();
+    }
+}
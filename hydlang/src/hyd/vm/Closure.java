@@ -0,0 +1,16 @@
+package hyd.vm;
+
+final class Closure {
+    final Prototype proto;
+    final Upvalue[] upvalues;
+
+    Closure(Prototype proto){
+        this.proto = proto;
+        this.upvalues = new Upvalue[proto.upvalueCount];
+    }
+
+    @Override
+    public String toString(){
+        return proto.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package hyd.vm;
+
+//storage for one global variable. chunks are linked to the vm's globals
+//before they run, so global accesses don't have to look names up.
+final class Global {
+    final String name;
+    Object value = null;
+    double number;
+    boolean defined = false;
+
+    Global(String name){
+        this.name = name;
+    }
+}
@@ -0,0 +1,16 @@
+package hyd.vm;
+
+public abstract class NativeFunction {
+    final int arity;
+
+    protected NativeFunction(int arity){
+        this.arity = arity;
+    }
+
+    protected abstract Object call(Object[] args);
+
+    @Override
+    public String toString(){
+        return "<native function>";
+    }
+}
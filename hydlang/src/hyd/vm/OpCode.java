@@ -0,0 +1,54 @@
+package hyd.vm;
+
+//instruction set of the vm. operands follow the opcode as unsigned 16 bit
+//big-endian values unless noted otherwise.
+public final class OpCode {
+    public static final byte CONSTANT      = 0;  //index -> push constant
+    public static final byte NUMBER        = 1;  //index -> push number constant
+    public static final byte NIL           = 2;
+    public static final byte TRUE          = 3;
+    public static final byte FALSE         = 4;
+    public static final byte POP           = 5;
+    public static final byte GET_LOCAL     = 6;  //slot
+    public static final byte SET_LOCAL     = 7;  //slot
+    public static final byte GET_UPVALUE   = 8;  //index
+    public static final byte SET_UPVALUE   = 9;  //index
+    public static final byte GET_GLOBAL    = 10; //global index
+    public static final byte SET_GLOBAL    = 11; //global index
+    public static final byte DEFINE_GLOBAL = 12; //global index
+    public static final byte EQUAL         = 13;
+    public static final byte NOT_EQUAL     = 14;
+    public static final byte GREATER       = 15;
+    public static final byte GREATER_EQUAL = 16;
+    public static final byte LESS          = 17;
+    public static final byte LESS_EQUAL    = 18;
+    public static final byte ADD           = 19;
+    public static final byte SUBTRACT      = 20;
+    public static final byte MULTIPLY      = 21;
+    public static final byte DIVIDE        = 22;
+    public static final byte NOT           = 23;
+    public static final byte NEGATE        = 24;
+    public static final byte PRINT         = 25;
+    public static final byte JUMP          = 26; //forward offset
+    public static final byte JUMP_IF_FALSE = 27; //forward offset, condition stays on the stack
+    public static final byte POP_JUMP_IF_FALSE = 28; //forward offset, pops the condition
+    public static final byte LOOP          = 29; //backward offset
+    public static final byte CALL          = 30; //arg count
+    public static final byte CLOSURE       = 31; //prototype constant, then (isLocal u8, index) per upvalue
+    public static final byte CLOSE_UPVALUE = 32;
+    public static final byte RETURN        = 33;
+    public static final byte TAIL_CALL     = 34; //arg count, always followed by RETURN
+    //pairs of the above the compiler fuses into one instruction.
+    public static final byte SET_LOCAL_POP  = 35; //slot, SET_LOCAL then POP
+    public static final byte SET_GLOBAL_POP = 36; //global index, SET_GLOBAL then POP
+    public static final byte ADD_NUMBER      = 37; //number constant index, NUMBER then ADD
+    public static final byte SUBTRACT_NUMBER = 38; //number constant index, NUMBER then SUBTRACT
+    public static final byte MULTIPLY_NUMBER = 39; //number constant index, NUMBER then MULTIPLY
+    public static final byte DIVIDE_NUMBER   = 40; //number constant index, NUMBER then DIVIDE
+    public static final byte JUMP_IF_NOT_GREATER       = 41; //forward offset, GREATER then POP_JUMP_IF_FALSE
+    public static final byte JUMP_IF_NOT_GREATER_EQUAL = 42; //forward offset, GREATER_EQUAL then POP_JUMP_IF_FALSE
+    public static final byte JUMP_IF_NOT_LESS          = 43; //forward offset, LESS then POP_JUMP_IF_FALSE
+    public static final byte JUMP_IF_NOT_LESS_EQUAL    = 44; //forward offset, LESS_EQUAL then POP_JUMP_IF_FALSE
+
+    private OpCode(){ }
+}
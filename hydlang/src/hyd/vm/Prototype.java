@@ -0,0 +1,31 @@
+package hyd.vm;
+
+//the compiled, environment independent part of a function. a Closure pairs
+//it with the variables it captured.
+public final class Prototype {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount;
+    int maxStack;
+
+    public Prototype(String name, int arity){
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public Chunk chunk(){
+        return chunk;
+    }
+
+    public void finish(int upvalueCount, int maxStack){
+        this.upvalueCount = upvalueCount;
+        this.maxStack = maxStack;
+        chunk.seal();
+    }
+
+    @Override
+    public String toString(){
+        return name == null ? "<script>" : "<function decl := " + name + "( params :" + arity + ")";
+    }
+}
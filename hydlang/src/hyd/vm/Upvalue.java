@@ -0,0 +1,17 @@
+package hyd.vm;
+
+//a captured variable. while the declaring function is still running it
+//points at the variable's stack slot, once that returns the value is moved
+//into the upvalue itself.
+final class Upvalue {
+    final int slot;
+    Object closed;
+    double closedNumber;
+    boolean open = true;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next){
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,611 @@
+package hyd.vm;
+
+import hyd.LazyString;
+import hyd.Output;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//a stack based interpreter for the bytecode produced by hyd.Compiler.
+//every call gets a frame whose locals start at the callee's stack slot.
+//
+//numbers are never boxed while they stay inside the vm: a slot holding a
+//number has the NUMBER tag in the object stack and its value in the
+//parallel double stack. the same goes for globals and closed upvalues.
+public final class VM {
+    static final Object NUMBER = new Object();
+    private static final int MAX_FRAMES = 1 << 16;
+
+    private static final class Frame {
+        Closure closure;
+        int ip;
+        int base;
+    }
+
+    private final Map<String, Global> globals = new HashMap<>();
+    private Object[] stack = new Object[1024];
+    private double[] numbers = new double[1024];
+    private int sp = 0;
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+    //flushed when a script ends or fails.
+    private final PrintWriter out;
+
+    public VM(){
+        this(Output.standard());
+    }
+
+    public VM(PrintWriter out){
+        this.out = out;
+        Global clock = global("clock");
+        clock.value = new NativeFunction(0) {
+            @Override
+            protected Object call(Object[] args) {
+                return (double)System.currentTimeMillis()/1000.0;
+            }
+        };
+        clock.defined = true;
+        Global flush = global("flush");
+        flush.value = new NativeFunction(0) {
+            @Override
+            protected Object call(Object[] args) {
+                VM.this.out.flush();
+                return null;
+            }
+        };
+        flush.defined = true;
+        for(int i = 0;i < frames.length;i++){
+            frames[i] = new Frame();
+        }
+    }
+
+    public void interpret(Prototype script){
+        link(script);
+        Closure closure = new Closure(script);
+        try{
+            stack[sp++] = closure;
+            callClosure(closure, 0);
+            run();
+        }finally {
+            out.flush();
+            Arrays.fill(stack, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void run(){
+        Frame frame = frames[frameCount-1];
+        Chunk chunk = frame.closure.proto.chunk;
+        byte[] code = chunk.code;
+        int ip = frame.ip;
+        int base = frame.base;
+        //the hot state is kept in locals and only written back to the
+        //fields around calls, which may grow the stacks.
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        int sp = this.sp;
+
+        for(;;){
+            switch(code[ip++]){
+                case OpCode.CONSTANT:
+                    stack[sp++] = chunk.constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NUMBER:
+                    numbers[sp] = chunk.numbers[readShort(code, ip)];
+                    stack[sp++] = NUMBER;
+                    ip += 2;
+                    break;
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case OpCode.POP: stack[--sp] = null; break;
+                case OpCode.GET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    numbers[sp] = numbers[slot];
+                    stack[sp++] = stack[slot];
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    numbers[slot] = numbers[sp-1];
+                    stack[slot] = stack[sp-1];
+                    break;
+                }
+                case OpCode.SET_LOCAL_POP: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    numbers[slot] = numbers[sp];
+                    stack[slot] = stack[sp];
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue up = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    if(up.open){
+                        numbers[sp] = numbers[up.slot];
+                        stack[sp++] = stack[up.slot];
+                    }else{
+                        numbers[sp] = up.closedNumber;
+                        stack[sp++] = up.closed;
+                    }
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue up = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    if(up.open){
+                        numbers[up.slot] = numbers[sp-1];
+                        stack[up.slot] = stack[sp-1];
+                    }else{
+                        up.closedNumber = numbers[sp-1];
+                        up.closed = stack[sp-1];
+                    }
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    Global global = chunk.globals[readShort(code, ip)];
+                    ip += 2;
+                    if(!global.defined){
+                        throw error(chunk, ip, "Undefined Variable: ["+ global.name + "]");
+                    }
+                    numbers[sp] = global.number;
+                    stack[sp++] = global.value;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    Global global = chunk.globals[readShort(code, ip)];
+                    ip += 2;
+                    if(!global.defined){
+                        throw error(chunk, ip, "Undefined Variable: ["+ global.name + "]");
+                    }
+                    global.number = numbers[sp-1];
+                    global.value = stack[sp-1];
+                    break;
+                }
+                case OpCode.SET_GLOBAL_POP: {
+                    Global global = chunk.globals[readShort(code, ip)];
+                    ip += 2;
+                    if(!global.defined){
+                        throw error(chunk, ip, "Undefined Variable: ["+ global.name + "]");
+                    }
+                    sp--;
+                    global.number = numbers[sp];
+                    global.value = stack[sp];
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    Global global = chunk.globals[readShort(code, ip)];
+                    ip += 2;
+                    sp--;
+                    global.number = numbers[sp];
+                    global.value = stack[sp];
+                    global.defined = true;
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.EQUAL:
+                    sp--;
+                    stack[sp-1] = isEqual(stack, numbers, sp-1, sp);
+                    stack[sp] = null;
+                    break;
+                case OpCode.NOT_EQUAL:
+                    sp--;
+                    stack[sp-1] = !isEqual(stack, numbers, sp-1, sp);
+                    stack[sp] = null;
+                    break;
+                case OpCode.GREATER:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    stack[sp-1] = numbers[sp-1] > numbers[sp];
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    stack[sp-1] = numbers[sp-1] >= numbers[sp];
+                    break;
+                case OpCode.LESS:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    stack[sp-1] = numbers[sp-1] < numbers[sp];
+                    break;
+                case OpCode.LESS_EQUAL:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    stack[sp-1] = numbers[sp-1] <= numbers[sp];
+                    break;
+                case OpCode.ADD: {
+                    sp--;
+                    Object left = stack[sp-1], right = stack[sp];
+                    if(left == NUMBER && right == NUMBER){
+                        numbers[sp-1] = numbers[sp-1] + numbers[sp];
+                    }else if(left instanceof CharSequence && right instanceof CharSequence){
+                        stack[sp-1] = LazyString.concat((CharSequence)left, (CharSequence)right);
+                        stack[sp] = null;
+                    }else{
+                        throw error(chunk, ip, "Operands must be of the same type (double or string).");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] - numbers[sp];
+                    break;
+                case OpCode.MULTIPLY:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] * numbers[sp];
+                    break;
+                case OpCode.DIVIDE:
+                    sp--;
+                    checkNumberOperands(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] / numbers[sp];
+                    break;
+                case OpCode.ADD_NUMBER:
+                    if(stack[sp-1] != NUMBER){
+                        throw error(chunk, ip, "Operands must be of the same type (double or string).");
+                    }
+                    numbers[sp-1] = numbers[sp-1] + chunk.numbers[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.SUBTRACT_NUMBER:
+                    checkNumberOperand(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] - chunk.numbers[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.MULTIPLY_NUMBER:
+                    checkNumberOperand(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] * chunk.numbers[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.DIVIDE_NUMBER:
+                    checkNumberOperand(chunk, ip, stack, sp);
+                    numbers[sp-1] = numbers[sp-1] / chunk.numbers[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NOT:
+                    stack[sp-1] = !isTheTruth(stack[sp-1]);
+                    break;
+                case OpCode.NEGATE:
+                    if(stack[sp-1] != NUMBER){
+                        throw error(chunk, ip, "Operand must be a number.");
+                    }
+                    numbers[sp-1] = -numbers[sp-1];
+                    break;
+                case OpCode.PRINT:
+                    sp--;
+                    out.println(stringify(box(stack, numbers, sp)));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if(isTheTruth(stack[sp-1])) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE:
+                    sp--;
+                    if(isTheTruth(stack[sp])) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    stack[sp] = null;
+                    break;
+                //both operands are numbers once checked, so their slots
+                //hold nothing to clear.
+                case OpCode.JUMP_IF_NOT_GREATER:
+                    sp -= 2;
+                    checkNumberOperands(chunk, ip, stack, sp+1);
+                    if(numbers[sp] > numbers[sp+1]) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL:
+                    sp -= 2;
+                    checkNumberOperands(chunk, ip, stack, sp+1);
+                    if(numbers[sp] >= numbers[sp+1]) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS:
+                    sp -= 2;
+                    checkNumberOperands(chunk, ip, stack, sp+1);
+                    if(numbers[sp] < numbers[sp+1]) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL:
+                    sp -= 2;
+                    checkNumberOperands(chunk, ip, stack, sp+1);
+                    if(numbers[sp] <= numbers[sp+1]) ip += 2;
+                    else ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.LOOP:
+                    ip += 2 - readShort(code, ip);
+                    break;
+                case OpCode.CALL: {
+                    int argc = readShort(code, ip);
+                    ip += 2;
+                    Object callee = stack[sp-1-argc];
+                    if(callee instanceof Closure){
+                        Closure closure = (Closure)callee;
+                        Prototype proto = closure.proto;
+                        checkArity(chunk, ip, proto.arity, argc);
+                        frame.ip = ip;
+                        int calleeBase = sp-1-argc;
+                        if(frameCount < frames.length && calleeBase + proto.maxStack < stack.length){
+                            //the common case, with room for the frame and
+                            //its stack, stays in this loop.
+                            frame = frames[frameCount++];
+                            frame.closure = closure;
+                            frame.base = base = calleeBase;
+                            chunk = proto.chunk;
+                            code = chunk.code;
+                            ip = 0;
+                            break;
+                        }
+                        this.sp = sp;
+                        callClosure(closure, argc);
+                        stack = this.stack;
+                        numbers = this.numbers;
+                        frame = frames[frameCount-1];
+                        chunk = frame.closure.proto.chunk;
+                        code = chunk.code;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }else{
+                        sp = callNative(chunk, ip, callee, argc, sp);
+                    }
+                    break;
+                }
+                case OpCode.TAIL_CALL: {
+                    int argc = readShort(code, ip);
+                    ip += 2;
+                    int callee = sp-1-argc;
+                    if(!(stack[callee] instanceof Closure)){
+                        //the RETURN that follows hands back the result.
+                        sp = callNative(chunk, ip, stack[callee], argc, sp);
+                        break;
+                    }
+                    Closure closure = (Closure)stack[callee];
+                    checkArity(chunk, ip, closure.proto.arity, argc);
+                    //the callee and its arguments take the place of the
+                    //frame making the call, so tail recursion runs in
+                    //constant space.
+                    closeUpvalues(base);
+                    System.arraycopy(stack, callee, stack, base, argc+1);
+                    System.arraycopy(numbers, callee, numbers, base, argc+1);
+                    Arrays.fill(stack, base+argc+1, sp, null);
+                    sp = base+argc+1;
+                    if(base + closure.proto.maxStack >= stack.length){
+                        grow(base + closure.proto.maxStack + 1);
+                        stack = this.stack;
+                        numbers = this.numbers;
+                    }
+                    frame.closure = closure;
+                    chunk = closure.proto.chunk;
+                    code = chunk.code;
+                    ip = 0;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Prototype proto = (Prototype)chunk.constants[readShort(code, ip)];
+                    ip += 2;
+                    Closure closure = new Closure(proto);
+                    for(int i = 0;i < closure.upvalues.length;i++){
+                        boolean isLocal = code[ip++] == 1;
+                        int index = readShort(code, ip);
+                        ip += 2;
+                        closure.upvalues[i] = isLocal ? capture(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp-1);
+                    stack[--sp] = null;
+                    break;
+                case OpCode.RETURN: {
+                    sp--;
+                    Object result = stack[sp];
+                    double number = numbers[sp];
+                    if(openUpvalues != null) closeUpvalues(base);
+                    Arrays.fill(stack, base, sp+1, null);
+                    sp = base;
+                    frameCount--;
+                    if(frameCount == 0){
+                        this.sp = sp;
+                        return;
+                    }
+                    numbers[sp] = number;
+                    stack[sp++] = result;
+                    frame = frames[frameCount-1];
+                    chunk = frame.closure.proto.chunk;
+                    code = chunk.code;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip-1] + ".");
+            }
+        }
+    }
+
+    //points the global table of script and every function nested in it at
+    //this vm's globals.
+    private void link(Prototype proto){
+        Chunk chunk = proto.chunk;
+        chunk.globals = new Global[chunk.globalNames.length];
+        for(int i = 0;i < chunk.globalNames.length;i++){
+            chunk.globals[i] = global(chunk.globalNames[i]);
+        }
+        for(Object constant : chunk.constants){
+            if(constant instanceof Prototype) link((Prototype)constant);
+        }
+    }
+
+    private Global global(String name){
+        Global global = globals.get(name);
+        if(global == null){
+            global = new Global(name);
+            globals.put(name, global);
+        }
+        return global;
+    }
+
+    //the callee and its arguments are already on the stack. the callee
+    //becomes local slot 0 of the new frame, followed by the parameters.
+    private void callClosure(Closure closure, int argc){
+        if(frameCount == frames.length){
+            if(frameCount == MAX_FRAMES){
+                throw new VmError(currentLine(), "Stack overflow.");
+            }
+            frames = Arrays.copyOf(frames, frameCount * 2);
+            for(int i = frameCount;i < frames.length;i++){
+                frames[i] = new Frame();
+            }
+        }
+        int base = sp-1-argc;
+        if(base + closure.proto.maxStack >= stack.length) grow(base + closure.proto.maxStack + 1);
+        Frame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+    }
+
+    private void grow(int size){
+        size = Math.max(stack.length * 2, size);
+        stack = Arrays.copyOf(stack, size);
+        numbers = Arrays.copyOf(numbers, size);
+    }
+
+    //calls anything but a closure, the arguments are replaced by the
+    //result. returns the new stack top.
+    private int callNative(Chunk chunk, int ip, Object callee, int argc, int sp){
+        if(!(callee instanceof NativeFunction)){
+            throw error(chunk, ip, "Can only call functions and classes.");
+        }
+        NativeFunction fn = (NativeFunction)callee;
+        checkArity(chunk, ip, fn.arity, argc);
+        Object[] args = new Object[argc];
+        for(int i = 0;i < argc;i++){
+            args[i] = box(stack, numbers, sp-argc+i);
+        }
+        Object result = fn.call(args);
+        Arrays.fill(stack, sp-argc, sp, null);
+        sp -= argc;
+        unbox(stack, numbers, sp-1, result);
+        return sp;
+    }
+
+    private Upvalue capture(int slot){
+        Upvalue prev = null;
+        Upvalue up = openUpvalues;
+        while(up != null && up.slot > slot){
+            prev = up;
+            up = up.next;
+        }
+        if(up != null && up.slot == slot) return up;
+
+        Upvalue created = new Upvalue(slot, up);
+        if(prev == null) openUpvalues = created;
+        else prev.next = created;
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while(openUpvalues != null && openUpvalues.slot >= last){
+            Upvalue up = openUpvalues;
+            up.closed = stack[up.slot];
+            up.closedNumber = numbers[up.slot];
+            up.open = false;
+            openUpvalues = up.next;
+        }
+    }
+
+    //numbers only get boxed when they leave the vm, for natives and printing.
+    private static Object box(Object[] stack, double[] numbers, int slot){
+        return stack[slot] == NUMBER ? (Object)numbers[slot] : stack[slot];
+    }
+
+    private static void unbox(Object[] stack, double[] numbers, int slot, Object value){
+        if(value instanceof Double){
+            numbers[slot] = (Double)value;
+            stack[slot] = NUMBER;
+        }else{
+            stack[slot] = value;
+        }
+    }
+
+    private static int readShort(byte[] code, int ip){
+        return ((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff);
+    }
+
+    private static void checkArity(Chunk chunk, int ip, int arity, int argc){
+        if(argc != arity){
+            throw error(chunk, ip, "Expected "+ arity + "args but got "+ argc + ".");
+        }
+    }
+
+    private static void checkNumberOperand(Chunk chunk, int ip, Object[] stack, int sp){
+        if(stack[sp-1] != NUMBER) throw error(chunk, ip, "Operands must be numbers.");
+    }
+
+    //the right operand is at sp, the left one just below it.
+    private static void checkNumberOperands(Chunk chunk, int ip, Object[] stack, int sp){
+        if(stack[sp-1] == NUMBER && stack[sp] == NUMBER){
+            return;
+        }
+        throw error(chunk, ip, "Operands must be numbers.");
+    }
+
+    private static VmError error(Chunk chunk, int ip, String msg){
+        return new VmError(chunk.lines[ip-1], msg);
+    }
+
+    private int currentLine(){
+        Frame frame = frames[frameCount-1];
+        return frame.closure.proto.chunk.lines[Math.max(frame.ip-1, 0)];
+    }
+
+    private static boolean isTheTruth(Object obj) {
+        if(obj == null) return false;
+        if(obj instanceof Boolean) return (boolean) obj;
+        return true;
+    }
+
+    //same rules as Double.equals for numbers, so that NaN equals itself.
+    private static boolean isEqual(Object[] stack, double[] numbers, int left, int right){
+        if(stack[left] == NUMBER || stack[right] == NUMBER){
+            return stack[left] == stack[right] &&
+                    Double.doubleToLongBits(numbers[left]) == Double.doubleToLongBits(numbers[right]);
+        }
+        if(stack[left] == null && stack[right] == null) return true;
+        if(stack[left] == null) return false;
+
+        return LazyString.flat(stack[left]).equals(LazyString.flat(stack[right]));
+    }
+
+    private static String stringify(Object obj){
+        if(obj == null) return "nil";
+
+        if(obj instanceof Double){
+            String text = obj.toString();
+
+            if(text.endsWith(".0")){
+                text = text.substring(0, text.length()-2);
+            }
+            return text;
+        }
+
+        return obj.toString();
+    }
+}
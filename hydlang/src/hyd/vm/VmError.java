@@ -0,0 +1,10 @@
+package hyd.vm;
+
+public class VmError extends RuntimeException {
+    public final int line;
+
+    VmError(int line, String msg){
+        super(msg);
+        this.line = line;
+    }
+}
@@ -7,6 +7,9 @@ import java.util.List;
 
 //TODO: FIX THIS!!!! (ALONG WITH ANY ISSUES IN AstPrinter;
 
+//fields after a '|' are not constructor params: they are left mutable
+//so that the Resolver can store what it works out directly on the node.
+
 public class GenAst {
     public static void main(String[] args) throws IOException {
         /*if(args.length != 1){
@@ -14,30 +17,33 @@ public class GenAst {
             System.exit(64);
         }else{*/
             String output_dir = "/Users/frankenstein/IdeaProjects/hydlang/src/hyd";
-            defineAst(output_dir, "Expr", Arrays.asList(
-                    "Assign : Token name, Expr value",
-                    "Binary : Expr left, Token oper, Expr right",
-                    "Call : Expr callee, Token paren, List<Expr> arguments",
+            defineAst(output_dir, "Expr", "boolean numeric", Arrays.asList(
+                    "Assign : Token name, Expr value | int depth = -1, int slot",
+                    "Binary : Expr left, Token oper, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
+                    "Call : Expr callee, Token paren, List<Expr> arguments | CallNode node = CallNode.UNINITIALIZED, boolean tail",
                     "Grouping : Expr expression",
                     "Literal : Object value",
                     "Logical : Expr left, Token oper, Expr right",
                     "Unary : Token oper, Expr right",
-                    "Variable : Token name"
+                    "Variable : Token name | int depth = -1, int slot"
             ));
 
-            defineAst(output_dir, "Stmt", Arrays.asList(
-                    "Block : List<Stmt> statements",
+            defineAst(output_dir, "Stmt", null, Arrays.asList(
+                    "Block : List<Stmt> statements | int locals, boolean flat",
                     "Expression : Expr expression",
-                    "Function : Token name, List<Token> params, List<Stmt> body",
+                    "Function : Token name, List<Token> params, List<Stmt> body | int slot, int locals, volatile int calls, volatile CompiledFunction compiled, boolean pure",
                     "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                    "Import : Token keyword, Token path, String file",
                     "Print : Expr expression",
                     "Return : Token keyword, Expr value",
-                    "Var : Token name, Expr initializer",
+                    "Var : Token name, Expr initializer | int slot",
                     "While : Expr condition, Stmt body"
             ));
         //}
     }
-    private static void defineAst(String output_dir, String baseName, List<String> types) throws IOException{
+    //baseFields are resolver filled fields shared by every subclass.
+    private static void defineAst(String output_dir, String baseName, String baseFields, List<String> types)
+            throws IOException{
         String path = output_dir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
         writer.println("package hyd;");
@@ -45,11 +51,18 @@ public class GenAst {
         writer.println("import java.util.List;");
         writer.println();
         writer.println("abstract class " + baseName + "{");
+        if(baseFields != null){
+            for(String f : baseFields.split(", ")){
+                writer.println("    " + f + ";");
+            }
+        }
         defineVisitor(writer, baseName, types);
         for(String type : types){
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineTypes(writer, baseName, className, fields);
+            String[] parts = type.split(":")[1].split("\\|");
+            String fields = parts[0].trim();
+            String resolved = parts.length > 1 ? parts[1].trim() : null;
+            defineTypes(writer, baseName, className, fields, resolved);
         }
         writer.println();
         writer.println(" abstract <R> R accept(Visitor<R> visitor);" );
@@ -68,7 +81,8 @@ public class GenAst {
         writer.println(" }");
     }
 
-    private static void defineTypes(PrintWriter writer, String baseName, String className, String fields){
+    private static void defineTypes(PrintWriter writer, String baseName, String className, String fields,
+                                    String resolved){
         String[] field = fields.split(", ");
         writer.println("static class " + className + " extends " + baseName + "{");
 
@@ -77,6 +91,13 @@ public class GenAst {
             writer.println("    final " + f + ";");
         }
 
+        //fields filled in by the Resolver;
+        if(resolved != null){
+            for(String f : resolved.split(", ")){
+                writer.println("    " + f + ";");
+            }
+        }
+
         //constructors for fields in the subclasses;
         writer.println("    " + className + "(" + fields + ") {");
         for(String f : field) {